@@ -0,0 +1,128 @@
+
+import java.lang.management.ManagementFactory;
+
+
+// A small benchmark harness, along the same lines as JMH
+// (which needs a build system and libraries this project doesn't have).
+// Each benchmark is warmed up so the JIT has compiled it, then timed over several
+// iterations. It reports the time per operation and, like JMH's GC profiler,
+// how many bytes each operation allocates and the allocation rate.
+//
+// The loop over operations is inside each benchmark (see Op), so the JIT can inline
+// the code being measured instead of calling it through an interface every time.
+
+
+class Benchmark {
+
+	static final int WARMUP_ITERATIONS = 5;
+	static final int MEASURE_ITERATIONS = 5;
+	static final long ITERATION_NANOS = 300000000L;		//0.3s per iteration
+
+	//Student's t value for a 99.9% confidence interval with MEASURE_ITERATIONS - 1 degrees of freedom
+	static final double T_VALUE = 8.610;
+
+	//a benchmark runs its operation 'count' times and returns something which depends
+	//on the results, so the JIT can't throw the work away
+	interface Op {
+		int run(int count);
+	}
+
+	//anything written here can't be optimised away
+	static volatile int sink;
+
+	private static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private static String filter = null;
+
+	//only run benchmarks with this in their name (null for all of them)
+	static void setFilter(String text) {
+		filter = text;
+	}
+
+	static void printHeader() {
+		System.out.printf("%-32s %-14s %12s %10s %10s %12s\n", "Benchmark", "Fixture", "ns/op", "error", "B/op", "MB/s alloc");
+	}
+
+	//returns how many bytes each operation allocated (or -1 if it was filtered out)
+	static double run(String name, String fixture, Op op) {
+		if (filter != null && !name.contains(filter)) {
+			return -1;
+		}
+
+		long thread = Thread.currentThread().getId();
+
+		//work out a batch size which takes about a millisecond, so the clock isn't read too often
+		int batch = 1;
+		while (true) {
+			long start = System.nanoTime();
+			sink += op.run(batch);
+			if (System.nanoTime() - start > 1000000L || batch >= (1 << 30)) {
+				break;
+			}
+			batch *= 2;
+		}
+
+		//ops, nanoseconds and bytes allocated for one iteration
+		long measured[] = new long[3];
+
+		for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+			iteration(op, batch, thread, measured);
+		}
+
+		double results[] = new double[MEASURE_ITERATIONS];
+		long totalOps = 0;
+		long totalNanos = 0;
+		long totalAllocated = 0;
+
+		for (int i = 0; i < MEASURE_ITERATIONS; ++i) {
+			iteration(op, batch, thread, measured);
+			results[i] = measured[1] / (double) measured[0];
+			totalOps += measured[0];
+			totalNanos += measured[1];
+			totalAllocated += measured[2];
+		}
+
+		//mean and a 99.9% confidence interval, roughly like JMH reports
+		double mean = 0;
+		for (double r : results) {
+			mean += r;
+		}
+		mean /= results.length;
+
+		double variance = 0;
+		for (double r : results) {
+			variance += (r - mean) * (r - mean);
+		}
+		variance /= results.length - 1;
+		double error = T_VALUE * Math.sqrt(variance / results.length);
+
+		double bytesPerOp = (double) totalAllocated / totalOps;
+		double allocationRate = totalAllocated / (totalNanos / 1000000000.0) / (1024.0 * 1024.0);
+
+		System.out.printf("%-32s %-14s %12.2f %10.2f %10.2f %12.2f\n", name, fixture, mean, error, bytesPerOp, allocationRate);
+		return bytesPerOp;
+	}
+
+	private static void iteration(Op op, int batch, long thread, long measured[]) {
+		long ops = 0;
+		int result = 0;
+
+		long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		long now;
+
+		do {
+			result += op.run(batch);
+			ops += batch;
+			now = System.nanoTime();
+		} while (now - start < ITERATION_NANOS);
+
+		long allocatedAfter = threads.getThreadAllocatedBytes(thread);
+
+		sink += result;
+
+		measured[0] = ops;
+		measured[1] = now - start;
+		measured[2] = allocatedAfter - allocatedBefore;
+	}
+}
@@ -0,0 +1,447 @@
+
+// Benchmarks for the hot paths of the engine and the text renderer.
+// Run with 'java EngineBenchmarks [name]' (only benchmarks containing 'name' are run)
+//
+// The benchmarks which change the playfield put it back every time, so the
+// 'fixtureReset' benchmark shows how much of their time is just that
+//
+// 'renderFrame' is a check as well as a benchmark: drawing a frame mustn't allocate anything,
+// so if it does, EngineBenchmarks exits with an error once it's finished
+//
+// 'boardSize' plays games on custom boards, from the standard one up to 64 columns
+// (the most a long per row holds) and 1000 rows, to show how the cost of an input grows with the board
+
+
+public class EngineBenchmarks {
+
+	//the boards for 'boardSize', including the walls and the floor
+	//(they're all an even number of columns inside the walls, so O pieces fill the rows exactly,
+	//and 60 rows is the most that fit in one long per column, with the rows under the floor)
+	static final int BOARD_WIDTHS[] = {TetrisEngine.PLAYFIELD_WIDTH, 34, BitBoard.MAX_WIDTH};
+	static final int BOARD_HEIGHTS[] = {TetrisEngine.PLAYFIELD_HEIGHT, 60, 250, 1000};
+
+	//set when a benchmark that mustn't allocate did
+	static boolean allocated = false;
+
+	public static void main(String[] args) {
+		if (args.length > 0) {
+			Benchmark.setFilter(args[0]);
+		}
+
+		Benchmark.printHeader();
+
+		getRotatedIndex();
+
+		for (int i = 0; i < Fixtures.NAMES.length; ++i) {
+			doesPieceFit(Fixtures.NAMES[i], Fixtures.create(Fixtures.HEIGHTS[i], 1));
+		}
+
+		for (int i = 0; i < Fixtures.NAMES.length; ++i) {
+			fixtureReset(Fixtures.NAMES[i], Fixtures.create(Fixtures.HEIGHTS[i], 1));
+		}
+
+		for (int i = 0; i < Fixtures.NAMES.length; ++i) {
+			lockAndDetectLines(Fixtures.NAMES[i], Fixtures.create(Fixtures.HEIGHTS[i], 1));
+		}
+
+		for (int rows = 1; rows <= 4; ++rows) {
+			cleanupClearedTiles(rows, false);
+		}
+
+		for (int rows = 1; rows <= 4; ++rows) {
+			cleanupClearedTiles(rows, true);
+		}
+
+		for (int i = 0; i < Fixtures.NAMES.length; ++i) {
+			hardDrop(Fixtures.NAMES[i], Fixtures.create(Fixtures.HEIGHTS[i], 1));
+		}
+
+		for (int players = 1; players <= 64; players *= 4) {
+			tick(players);
+		}
+
+		for (int width : BOARD_WIDTHS) {
+			for (int height : BOARD_HEIGHTS) {
+				boardSize(width, height);
+			}
+		}
+
+		for (int i = 0; i < Fixtures.NAMES.length; ++i) {
+			snapshot(Fixtures.NAMES[i], Fixtures.create(Fixtures.HEIGHTS[i], 1), false);
+		}
+
+		for (int i = 0; i < Fixtures.NAMES.length; ++i) {
+			snapshot(Fixtures.NAMES[i], Fixtures.create(Fixtures.HEIGHTS[i], 1), true);
+		}
+
+		for (int i = 0; i < Fixtures.NAMES.length; ++i) {
+			autoPlayerPlan(Fixtures.NAMES[i], Fixtures.create(Fixtures.HEIGHTS[i], 1), true);
+		}
+
+		for (int i = 0; i < Fixtures.NAMES.length; ++i) {
+			autoPlayerPlan(Fixtures.NAMES[i], Fixtures.create(Fixtures.HEIGHTS[i], 1), false);
+		}
+
+		for (int i = 0; i < Fixtures.NAMES.length; ++i) {
+			redraw(Fixtures.NAMES[i], Fixtures.create(Fixtures.HEIGHTS[i], 1));
+		}
+
+		renderFrame();
+
+		if (allocated) {
+			System.exit(1);
+		}
+	}
+
+	static void getRotatedIndex() {
+		Benchmark.run("getRotatedIndex", "-", new Benchmark.Op() {
+			public int run(int count) {
+				int result = 0;
+				for (int i = 0; i < count; ++i) {
+					//cycles through every cell, rotation and shape
+					result += TetrisEngine.getRotatedIndex(i & 3, (i >> 2) & 3, i >> 4, (i >> 6) % 7);
+				}
+				return result;
+			}
+		});
+	}
+
+	static void doesPieceFit(String fixture, final TetrisEngine engine) {
+		//a mix of pieces, rotations and columns, around the top of the stack where the checks usually happen
+		final int shapes[] = new int[256];
+		final int rotations[] = new int[256];
+		final int xs[] = new int[256];
+		final int ys[] = new int[256];
+
+		java.util.Random rng = new java.util.Random(2);
+		for (int i = 0; i < 256; ++i) {
+			shapes[i] = rng.nextInt(7);
+			rotations[i] = rng.nextInt(4);
+			xs[i] = rng.nextInt(TetrisEngine.PLAYFIELD_WIDTH - 2);
+			ys[i] = Fixtures.landingY(engine, shapes[i], rotations[i], xs[i]) + rng.nextInt(2);
+		}
+
+		Benchmark.run("doesPieceFit", fixture, new Benchmark.Op() {
+			public int run(int count) {
+				int fits = 0;
+				for (int i = 0; i < count; ++i) {
+					int j = i & 255;
+					if (engine.doesPieceFit(TetrisEngine.PLAYER_1, shapes[j], rotations[j], xs[j], ys[j])) {
+						++fits;
+					}
+				}
+				return fits;
+			}
+		});
+	}
+
+	static void fixtureReset(String fixture, final TetrisEngine engine) {
+		final Fixtures.Saved saved = new Fixtures.Saved(engine);
+
+		Benchmark.run("fixtureReset", fixture, new Benchmark.Op() {
+			public int run(int count) {
+				for (int i = 0; i < count; ++i) {
+					saved.restore(engine);
+				}
+				return (int) engine.boards[TetrisEngine.PLAYER_1].rows[0];
+			}
+		});
+	}
+
+	//the part of moveBlockDown where the piece gets stuck, is copied into the playfield and the rows are checked
+	static void lockAndDetectLines(String fixture, final TetrisEngine engine) {
+		final Fixtures.Saved saved = new Fixtures.Saved(engine);
+		final TetrisEngine.PlayerState p = engine.players[TetrisEngine.PLAYER_1];
+		final int x = 3;
+		final int y = Fixtures.landingY(engine, TetrisEngine.TILE_T, 0, x);
+
+		Benchmark.run("lockAndDetectLines", fixture, new Benchmark.Op() {
+			public int run(int count) {
+				int result = 0;
+				for (int i = 0; i < count; ++i) {
+					saved.restore(engine);
+					p.currentShape = TetrisEngine.TILE_T;
+					p.currentDirection = 0;
+					p.currentX = x;
+					p.currentY = y;
+					p.phase = TetrisEngine.PHASE_FALLING;
+					result += engine.moveBlockDown(TetrisEngine.PLAYER_1);
+				}
+				return result;
+			}
+		});
+	}
+
+	//removing 1-4 rows from the bottom of the mid-stack board
+	//(or with 'old' set, the same with the way it used to be done, to compare against)
+	static void cleanupClearedTiles(int rows, final boolean old) {
+		final TetrisEngine engine = Fixtures.create(Fixtures.HEIGHTS[1], 1);
+		int floor = TetrisEngine.PLAYFIELD_HEIGHT - 1;
+
+		for (int y = floor - rows; y < floor; ++y) {
+			for (int x = 1; x < TetrisEngine.PLAYFIELD_WIDTH - 1; ++x) {
+				Fixtures.setCell(engine, TetrisEngine.PLAYER_1, x, y, TetrisEngine.TILE_CLEARED);
+			}
+		}
+
+		final Fixtures.Saved saved = new Fixtures.Saved(engine);
+
+		Benchmark.run(old ? "cleanupClearedTiles (old)" : "cleanupClearedTiles", rows + " rows", new Benchmark.Op() {
+			public int run(int count) {
+				for (int i = 0; i < count; ++i) {
+					saved.restore(engine);
+					if (old) {
+						oldCleanupClearedTiles(engine, TetrisEngine.PLAYER_1);
+					} else {
+						engine.cleanupClearedTiles(TetrisEngine.PLAYER_1);
+					}
+				}
+				return (int) engine.boards[TetrisEngine.PLAYER_1].rows[TetrisEngine.PLAYFIELD_HEIGHT - 2];
+			}
+		});
+	}
+
+	//cleanupClearedTiles before it was changed to move each row once,
+	//it shifted everything above each cleared row down by one, a cell at a time
+	static void oldCleanupClearedTiles(TetrisEngine engine, int player) {
+		byte playfield[] = engine.playfields[player];
+		int width = TetrisEngine.PLAYFIELD_WIDTH;
+		int numCleared = 0;
+
+		for (int y = 0; y < TetrisEngine.PLAYFIELD_HEIGHT - 1; ++y) {
+			if (playfield[y * width + 1] == TetrisEngine.TILE_CLEARED) {
+				++numCleared;
+
+				engine.boards[player].removeRow(y);
+
+				int row = y;
+				do {
+					for (int x = 1; x < width - 1; ++x) {
+						playfield[row * width + x] = playfield[(row - 1) * width + x];
+					}
+					--row;
+
+				} while (row > 0);
+
+				for (int x = 1; x < width - 1; ++x) {
+					playfield[x] = TetrisEngine.TILE_BLANK;
+				}
+
+				if (numCleared == 4) {
+					break;
+				}
+			}
+		}
+	}
+
+	//dropping a piece from the top to the stack (it doesn't lock until the next gravity frame)
+	static void hardDrop(String fixture, final TetrisEngine engine) {
+		final TetrisEngine.PlayerState p = engine.players[TetrisEngine.PLAYER_1];
+
+		Benchmark.run("hardDrop", fixture, new Benchmark.Op() {
+			public int run(int count) {
+				int result = 0;
+				for (int i = 0; i < count; ++i) {
+					p.currentShape = TetrisEngine.TILE_I;
+					p.currentDirection = 0;
+					p.currentX = 3;
+					p.currentY = 0;
+					p.dropCounter = 0;
+					result += engine.step(TetrisEngine.PLAYER_1, TetrisEngine.INPUT_HARD_DROP) + p.currentY;
+				}
+				return result;
+			}
+		});
+	}
+
+	//drawing a frame with the piece in a different place each time
+	//(only TextRenderer, as copying the lines into the text box needs a window)
+	static void redraw(String fixture, final TetrisEngine engine) {
+		final TextRenderer renderer = new TextRenderer(engine);
+		final TetrisEngine.PlayerState p = engine.players[TetrisEngine.PLAYER_1];
+
+		Benchmark.run("redrawGame", fixture, new Benchmark.Op() {
+			public int run(int count) {
+				int result = 0;
+				for (int i = 0; i < count; ++i) {
+					p.currentX = 2 + (i & 3);
+					if (renderer.render()) {
+						++result;
+					}
+				}
+				return result;
+			}
+		});
+	}
+
+	//drawing the frames of a 2 player game that's being played, so everything on the screen changes
+	//(moving the game on each frame is timed too, and it doesn't allocate either)
+	static void renderFrame() {
+		final TetrisEngine engine = new TetrisEngine();
+		engine.numPlayers = 2;
+		engine.startGame(1);
+
+		final TextRenderer renderer = new TextRenderer(engine);
+
+		double bytes = Benchmark.run("renderFrame", "2 players", new Benchmark.Op() {
+			int input = 0;
+
+			public int run(int count) {
+				int result = 0;
+				for (int i = 0; i < count; ++i, ++input) {
+					if (engine.isGameOver()) {
+						engine.startGame(input);
+					}
+					engine.step(input & 1, (input >> 1) % 6);
+					engine.tick(input & 1);
+
+					if (renderer.render()) {
+						++result;
+					}
+				}
+				return result;
+			}
+		});
+
+		if (bytes > 0) {
+			System.out.printf("    renderFrame allocated %.3f bytes per frame, a frame shouldn't allocate at all\n", bytes);
+			allocated = true;
+		}
+	}
+
+	//working out where the bot puts a piece (this has to fit in a frame at level 29)
+	//(or without 'table', searching every board even if it's been seen before, to compare against)
+	static void autoPlayerPlan(String fixture, final TetrisEngine engine, boolean table) {
+		final AutoPlayer autoPlayer = new AutoPlayer(engine, TetrisEngine.PLAYER_1, new WeightedEvaluator());
+		final TetrisEngine.PlayerState p = engine.players[TetrisEngine.PLAYER_1];
+
+		if (!table) {
+			autoPlayer.table = null;
+		}
+
+		Benchmark.run(table ? "autoPlayerPlan" : "autoPlayerPlan (no table)", fixture, new Benchmark.Op() {
+			public int run(int count) {
+				int result = 0;
+				for (int i = 0; i < count; ++i) {
+					p.currentShape = i % 7;
+					p.nextShape = (i / 7) % 7;
+					autoPlayer.plan();
+					result += autoPlayer.numKeys;
+				}
+				return result;
+			}
+		});
+
+		//how many of the boards didn't need searching
+		if (table && autoPlayer.table.lookups != 0) {
+			TranspositionTable t = autoPlayer.table;
+			System.out.printf("    table: %.1f%% hits, %.1f%% of stores replaced something\n", 100.0 * t.hitRate(), 100.0 * t.replaced / t.stores);
+		}
+	}
+
+	//saving a game and putting it back, like a bot trying a move and undoing it
+	//(or with 'state' set, the same with saveState and loadState, which replays use, to compare against)
+	static void snapshot(String fixture, final TetrisEngine engine, final boolean state) {
+		final GameSnapshot snapshot = new GameSnapshot(engine);
+		final java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(ReplayRecorder.MAX_STATE_SIZE_PER_PLAYER * 2);
+
+		Benchmark.run(state ? "snapshot (saveState)" : "snapshot", fixture, new Benchmark.Op() {
+			public int run(int count) {
+				for (int i = 0; i < count; ++i) {
+					if (state) {
+						buffer.clear();
+						engine.saveState(buffer);
+						buffer.flip();
+						engine.loadState(buffer);
+					} else {
+						engine.saveSnapshot(snapshot);
+						engine.loadSnapshot(snapshot);
+					}
+				}
+				return engine.players[TetrisEngine.PLAYER_1].score;
+			}
+		});
+	}
+
+	//one input at a time (a move, a hard drop or a frame) of a game on a custom board
+	//it's only O pieces, put side by side along the board, so every row gets filled and cleared
+	//however big the board is, without a bot having to work out where they go
+	static void boardSize(final int width, int height) {
+		final TetrisEngine engine = new TetrisEngine(1, width, height);
+		final TetrisEngine.PlayerState p = engine.players[TetrisEngine.PLAYER_1];
+		final int minX = PieceTable.minX[PieceTable.pieceIndex(TetrisEngine.TILE_O, 0)];
+
+		engine.randomizer = new Randomizer() {
+			public int start() {
+				return 0;
+			}
+
+			public int next(PieceQueue queue) {
+				return TetrisEngine.TILE_O;
+			}
+		};
+
+		//so the piece locks on the frame after it's dropped, and the next one appears straight away
+		engine.entryDelays = new int[] {0};
+		engine.lineClearDelays = new int[] {0};
+		engine.setStartLevel(29);
+		engine.startGame(1);
+
+		Benchmark.run("boardSize", width + "x" + height, new Benchmark.Op() {
+			int planned = -1;
+			int target;
+			boolean dropped;
+
+			public int run(int count) {
+				int result = 0;
+				for (int i = 0; i < count; ++i) {
+					//a new piece, so it goes next to the last one (or back at the left wall)
+					if (planned != p.pieces) {
+						planned = p.pieces;
+						target = 1 + 2 * (p.pieces % ((width - 2) / 2)) - minX;
+						dropped = false;
+					}
+
+					if (!engine.isPieceActive(TetrisEngine.PLAYER_1) || dropped) {
+						result += engine.tick();
+
+					} else if (p.currentX != target) {
+						result += engine.step(TetrisEngine.PLAYER_1, p.currentX < target ? TetrisEngine.INPUT_RIGHT : TetrisEngine.INPUT_LEFT);
+
+					} else {
+						dropped = true;
+						result += engine.step(TetrisEngine.PLAYER_1, TetrisEngine.INPUT_HARD_DROP);
+					}
+				}
+				return result;
+			}
+		});
+
+		if (engine.isGameOver()) {
+			throw new IllegalStateException("the pieces didn't fill the rows on a " + width + "x" + height + " board");
+		}
+		if (p.linesCleared != 0) {
+			System.out.printf("    %d pieces, %d lines\n", p.pieces, p.linesCleared);
+		}
+	}
+
+	//one frame of a game with lots of players, which should take about the same time per player however many there are
+	static void tick(final int players) {
+		final TetrisEngine engine = new TetrisEngine(players);
+		engine.numPlayers = players;
+		engine.startGame(1);
+
+		Benchmark.run("tick", players + " players", new Benchmark.Op() {
+			public int run(int count) {
+				int result = 0;
+				for (int i = 0; i < count; ++i) {
+					if (engine.isGameOver()) {
+						engine.startGame(i);
+					}
+					result += engine.tick();
+				}
+				return result;
+			}
+		});
+	}
+}
@@ -0,0 +1,78 @@
+
+import java.util.Random;
+
+
+// Boards for the benchmarks to run against, from an empty playfield up to one that's
+// nearly topped out. The stacks are random but have one gap in every row,
+// so nothing gets cleared unless a benchmark wants it to.
+
+
+class Fixtures {
+
+	static final String NAMES[] = {"empty", "mid-stack", "near-top-out"};
+	static final int HEIGHTS[] = {0, 8, 15};
+
+	//makes an engine with a one player game running, with the bottom 'height' rows filled in
+	static TetrisEngine create(int height, long seed) {
+		TetrisEngine engine = new TetrisEngine();
+		engine.startGame(seed);
+
+		Random rng = new Random(seed);
+		int floor = TetrisEngine.PLAYFIELD_HEIGHT - 1;
+
+		for (int y = floor - height; y < floor; ++y) {
+			int gap = 1 + rng.nextInt(TetrisEngine.PLAYFIELD_WIDTH - 2);
+
+			for (int x = 1; x < TetrisEngine.PLAYFIELD_WIDTH - 1; ++x) {
+				//leave a few extra holes so it looks like a real stack
+				if (x != gap && rng.nextInt(6) != 0) {
+					setCell(engine, TetrisEngine.PLAYER_1, x, y, (byte) rng.nextInt(7));
+				}
+			}
+		}
+
+		engine.boards[TetrisEngine.PLAYER_1].updateColumns();
+		return engine;
+	}
+
+	//(call BitBoard.updateColumns() after setting them)
+	static void setCell(TetrisEngine engine, int player, int x, int y, byte tile) {
+		engine.playfields[player][y * engine.width + x] = tile;
+		engine.boards[player].rows[y] |= BitBoard.bit(x);
+	}
+
+	//the Y position a piece would land at if it was dropped from the top
+	static int landingY(TetrisEngine engine, int shape, int rotation, int x) {
+		int y = 0;
+		while (engine.doesPieceFit(TetrisEngine.PLAYER_1, shape, rotation, x, y + 1)) {
+			++y;
+		}
+		return y;
+	}
+
+	//a saved copy of a playfield, so a benchmark can put it back after changing it
+	static class Saved {
+		final byte playfield[];
+		final long rows[];
+		final long columns[];
+		final long hash;
+		final int top;
+
+		Saved(TetrisEngine engine) {
+			playfield = engine.playfields[TetrisEngine.PLAYER_1].clone();
+			rows = engine.boards[TetrisEngine.PLAYER_1].rows.clone();
+			columns = engine.boards[TetrisEngine.PLAYER_1].columns.clone();
+			hash = engine.boards[TetrisEngine.PLAYER_1].hash;
+			top = engine.boards[TetrisEngine.PLAYER_1].top;
+		}
+
+		void restore(TetrisEngine engine) {
+			System.arraycopy(playfield, 0, engine.playfields[TetrisEngine.PLAYER_1], 0, playfield.length);
+			System.arraycopy(rows, 0, engine.boards[TetrisEngine.PLAYER_1].rows, 0, rows.length);
+			System.arraycopy(columns, 0, engine.boards[TetrisEngine.PLAYER_1].columns, 0, columns.length);
+			engine.boards[TetrisEngine.PLAYER_1].hash = hash;
+			engine.boards[TetrisEngine.PLAYER_1].top = top;
+			++engine.boards[TetrisEngine.PLAYER_1].version;
+		}
+	}
+}
@@ -0,0 +1,87 @@
+
+import java.util.Arrays;
+
+
+// Plays a versus game over 127.0.0.1 with two VersusClients and no windows.
+// Each client sends inputs and waits for the server to acknowledge them, which gives
+// the round trip time, then the server is stopped and both clients' copies of the
+// game are checked against the server's.
+//
+// Run with 'java VersusBenchmark [inputs]'
+
+
+public class VersusBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int inputs = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+
+		VersusServer server = new VersusServer(0, 2);
+		server.start();
+
+		VersusClient clients[] = new VersusClient[2];
+		for (int i = 0; i < clients.length; ++i) {
+			clients[i] = new VersusClient(new TetrisEngine(), "127.0.0.1", server.port());
+		}
+
+		//wait for the game to start
+		while (clients[0].player == -1 || clients[1].player == -1) {
+			for (VersusClient client : clients) {
+				client.poll();
+			}
+		}
+
+		long roundTrips[] = new long[inputs];
+		long start = System.nanoTime();
+
+		for (int i = 0; i < inputs; ++i) {
+			VersusClient client = clients[i & 1];
+
+			//move left and right and rotate, but don't drop, so the game lasts
+			int sequence = client.sendInput(i % 3 == 2 ? TetrisEngine.INPUT_ROTATE_RIGHT : (i / 3) & 1);
+
+			while (client.lastAcknowledged != sequence) {
+				clients[0].poll();
+				clients[1].poll();
+			}
+
+			roundTrips[i] = client.lastRoundTrip;
+		}
+
+		double seconds = (System.nanoTime() - start) / 1000000000.0;
+
+		//let the server finish, then pick up anything it sent on the way out
+		server.stop();
+		for (VersusClient client : clients) {
+			while (client.poll() != -1) {
+			}
+		}
+
+		Arrays.sort(roundTrips);
+		System.out.printf("%d inputs in %.2fs, round trip: median %.1fus, 99%% %.1fus, max %.1fus\n", inputs, seconds,
+				roundTrips[inputs / 2] / 1000.0, roundTrips[inputs * 99 / 100] / 1000.0, roundTrips[inputs - 1] / 1000.0);
+		System.out.printf("%d frames, %.1f bytes per frame to each client\n", server.engine.frame,
+				(double) clients[0].bytesReceived / Math.max(1, server.engine.frame));
+
+		//both clients should have exactly what the server has
+		boolean same = true;
+		for (VersusClient client : clients) {
+			for (int p = 0; p < 2; ++p) {
+				TetrisEngine.PlayerState a = server.engine.players[p];
+				TetrisEngine.PlayerState b = client.engine.players[p];
+
+				same &= Arrays.equals(server.engine.playfields[p], client.engine.playfields[p]);
+				same &= Arrays.equals(server.engine.boards[p].rows, client.engine.boards[p].rows);
+				same &= a.currentShape == b.currentShape && (a.currentDirection & 3) == b.currentDirection &&
+						a.currentX == b.currentX && a.currentY == b.currentY && a.nextShape == b.nextShape &&
+						a.phase == b.phase && a.score == b.score && a.linesCleared == b.linesCleared &&
+						a.level == b.level && a.gravityFrames == b.gravityFrames;
+			}
+			same &= server.engine.gameState == client.engine.gameState;
+		}
+
+		System.out.println(same ? "clients match the server" : "clients DON'T match the server");
+		if (!same) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,259 @@
+
+// A bot which can play any of the players.
+// When a new piece appears, it tries every rotation and column the piece can reach
+// from where it is, drops it, and then does the same for the next piece on each of
+// those boards. Every board at the end is scored by a BoardEvaluator, and the placement
+// for the current piece which leads to the best one wins.
+// The moves are then turned into the same inputs a key press would make
+// (rotate, move left/right, hard drop) and sent to the engine.
+//
+// All the boards it needs are made up front, so working out a move doesn't
+// allocate anything, and it takes well under a millisecond (see EngineBenchmarks)
+// so it can keep up even when the piece falls every frame at level 29
+//
+// The same board often comes up more than once in a search (symmetric pieces, or two pieces
+// of the same shape placed either way round), so the scores are kept in a TranspositionTable
+// by the board's hash, and a board that's already been scored isn't searched again
+
+
+class AutoPlayer {
+
+	//the placement doesn't leave room for the next piece to appear
+	private static final double GAME_OVER = -1e9;
+
+	//a search is a thousand or so boards at most, so this is plenty
+	static final int TABLE_SIZE = 4096;
+
+	//what the scores in the table are for, deeper ones are more work to find again
+	static final int DEPTH_BOARD = 0;		//one board after both pieces
+	static final int DEPTH_NEXT = 1;		//the best placement of the next piece
+
+	private final TetrisEngine engine;
+	private final int player;
+	private final BoardEvaluator evaluator;
+
+	//how many inputs get sent each frame, the default sends the whole move at once
+	int keysPerFrame = Integer.MAX_VALUE;
+
+	//the move for the current piece (a rotation twice, as far as a wall, and the hard drop)
+	final int keys[];
+	int numKeys = 0;
+	private int nextKey = 0;
+	private int plannedPiece = -1;			//PlayerState.pieces when the move was worked out
+
+	//the boards after placing the current piece and then the next piece
+	private final BitBoard afterCurrent;
+	private final BitBoard afterNext;
+
+	//the best placement found by the last search
+	private int bestRotation;
+	private int bestX;
+
+	//scores already worked out in this search (null to search everything every time)
+	TranspositionTable table = new TranspositionTable(TABLE_SIZE);
+
+	AutoPlayer(TetrisEngine engine, int player, BoardEvaluator evaluator) {
+		this.engine = engine;
+		this.player = player;
+		this.evaluator = evaluator;
+
+		keys = new int[2 + engine.width + 1];
+		afterCurrent = new BitBoard(engine.width, engine.height);
+		afterNext = new BitBoard(engine.width, engine.height);
+	}
+
+	//forgets the move it was making, for when it starts a new game
+	//(a new game's pieces start counting again, and could land on the one it last planned)
+	void reset() {
+		plannedPiece = -1;
+		numKeys = 0;
+		nextKey = 0;
+	}
+
+	//call once per frame, before tick()
+	//works out a move whenever a new piece appears, and sends it to the engine
+	int update() {
+		TetrisEngine.PlayerState p = engine.players[player];
+
+		if (engine.gameState != TetrisEngine.GAME_STATE_RUNNING || !engine.isPieceActive(player) ||
+				player >= engine.numPlayers || p.lost) {
+			return 0;
+		}
+
+		if (plannedPiece != p.pieces) {
+			plannedPiece = p.pieces;
+			plan();
+		}
+
+		int events = 0;
+		for (int i = 0; i < keysPerFrame && nextKey < numKeys; ++i) {
+			events |= engine.step(player, keys[nextKey++]);
+		}
+
+		return events;
+	}
+
+	//finds the best place for the current piece and fills in 'keys' with how to get there
+	void plan() {
+		TetrisEngine.PlayerState p = engine.players[player];
+
+		search(engine.boards[player], p.currentShape, p.currentDirection, p.currentX, p.currentY, p.nextShape);
+
+		numKeys = 0;
+		nextKey = 0;
+
+		//rotating left once is quicker than rotating right three times
+		int turns = (bestRotation - p.currentDirection) & 3;
+		if (turns == 3) {
+			keys[numKeys++] = TetrisEngine.INPUT_ROTATE_LEFT;
+		} else {
+			for (int i = 0; i < turns; ++i) {
+				keys[numKeys++] = TetrisEngine.INPUT_ROTATE_RIGHT;
+			}
+		}
+
+		for (int x = p.currentX; x > bestX; --x) {
+			keys[numKeys++] = TetrisEngine.INPUT_LEFT;
+		}
+		for (int x = p.currentX; x < bestX; ++x) {
+			keys[numKeys++] = TetrisEngine.INPUT_RIGHT;
+		}
+
+		keys[numKeys++] = TetrisEngine.INPUT_HARD_DROP;
+	}
+
+	//tries every placement of 'shape' (and then 'nextShape'), leaving the best in bestRotation and bestX
+	private void search(BitBoard board, int shape, int direction, int startX, int startY, int nextShape) {
+		double bestScore = Double.NEGATIVE_INFINITY;
+		bestRotation = direction;
+		bestX = startX;
+
+		if (table != null) {
+			table.newSearch();
+		}
+
+		for (int turns = 0; turns < 4; ++turns) {
+			//the same checks the engine does for each key press
+			int rotation = turns == 3 ? direction - 1 : direction + turns;
+			if (!canRotate(board, shape, direction, turns, startX, startY)) {
+				continue;
+			}
+
+			//slide as far as it goes both ways, everything in between can be reached too
+			int left = startX;
+			while (board.doesPieceFit(shape, rotation, left - 1, startY)) {
+				--left;
+			}
+
+			int right = startX;
+			while (board.doesPieceFit(shape, rotation, right + 1, startY)) {
+				++right;
+			}
+
+			for (int x = left; x <= right; ++x) {
+				afterCurrent.copyFrom(board);
+				int lines = drop(afterCurrent, shape, rotation, x, startY);
+
+				double score = searchNext(afterCurrent, lines, nextShape);
+
+				if (score > bestScore) {
+					bestScore = score;
+					bestRotation = rotation & 3;
+					bestX = x;
+				}
+			}
+		}
+	}
+
+	//the best score of any placement of the next piece on this board
+	private double searchNext(BitBoard board, int linesSoFar, int shape) {
+		long key = board.hash ^ Zobrist.SHAPES[shape] ^ Zobrist.LINES[linesSoFar];
+		if (table != null) {
+			int slot = table.find(key);
+			if (slot != -1) {
+				return table.value(slot);
+			}
+		}
+
+		int startX = board.width / 2 - 1;
+
+		//if the next piece can't even appear, this is as bad as it gets
+		if (!board.doesPieceFit(shape, 0, startX, 0)) {
+			return GAME_OVER + evaluate(board, linesSoFar);
+		}
+
+		double bestScore = Double.NEGATIVE_INFINITY;
+
+		for (int turns = 0; turns < 4; ++turns) {
+			int rotation = turns == 3 ? -1 : turns;
+			if (!canRotate(board, shape, 0, turns, startX, 0)) {
+				continue;
+			}
+
+			int left = startX;
+			while (board.doesPieceFit(shape, rotation, left - 1, 0)) {
+				--left;
+			}
+
+			int right = startX;
+			while (board.doesPieceFit(shape, rotation, right + 1, 0)) {
+				++right;
+			}
+
+			for (int x = left; x <= right; ++x) {
+				afterNext.copyFrom(board);
+				int lines = drop(afterNext, shape, rotation, x, 0);
+
+				double score = evaluate(afterNext, linesSoFar + lines);
+				if (score > bestScore) {
+					bestScore = score;
+				}
+			}
+		}
+
+		if (table != null) {
+			table.store(key, bestScore, DEPTH_NEXT);
+		}
+		return bestScore;
+	}
+
+	//the evaluator's score for a board, if it hasn't already been worked out
+	private double evaluate(BitBoard board, int linesCleared) {
+		if (table == null) {
+			return evaluator.evaluate(board, linesCleared);
+		}
+
+		long key = board.hash ^ Zobrist.LINES[linesCleared];
+		int slot = table.find(key);
+		if (slot != -1) {
+			return table.value(slot);
+		}
+
+		double score = evaluator.evaluate(board, linesCleared);
+		table.store(key, score, DEPTH_BOARD);
+		return score;
+	}
+
+	//whether rotating right 'turns' times (or left once for 3) works at the start position
+	private static boolean canRotate(BitBoard board, int shape, int direction, int turns, int x, int y) {
+		if (turns == 3) {
+			return board.doesPieceFit(shape, direction - 1, x, y);
+		}
+
+		for (int i = 1; i <= turns; ++i) {
+			if (!board.doesPieceFit(shape, direction + i, x, y)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	//drops a piece straight down, places it and removes any full rows, returning how many there were
+	private static int drop(BitBoard board, int shape, int rotation, int x, int y) {
+		y += board.dropDistance(shape, rotation, x, y);
+
+		board.placePiece(shape, rotation, x, y);
+		return board.removeFullRows();
+	}
+}
@@ -0,0 +1,305 @@
+
+import java.util.Arrays;
+
+
+// A playfield stored as one long per row, used for collision and line detection.
+// Bit (x - 1) is set when column x is filled, so a row is only the cells inside the walls
+// and a board can be up to 64 columns wide. The bits past the right wall count as wall
+// (a piece hanging off the left ends up in the top ones too, see doesPieceFit), and the floor
+// and everything under it are set from the start, so there is no bounds checking. Only boards
+// too wide to have 4 of those bits spare check a piece against the edges instead.
+// The byte playfield in TetrisEngine still holds the colours, as only drawing needs them
+//
+// The same board is also kept turned on its side (a long for every 64 rows of each column),
+// so how far a piece can drop is just counting the empty bits under each column of it,
+// instead of trying every row
+//
+// It keeps a Zobrist hash of the filled cells too (see Zobrist), updated a cell at a time as
+// pieces are placed and a row at a time as rows move down, so a search can spot boards it's seen
+
+
+class BitBoard {
+
+	//solid rows below the floor, so the empty bottom rows of a 4x4 piece can be checked without bounds checking
+	static final int ROWS_BELOW = 4;
+
+	//the biggest board (including the walls and the floor)
+	static final int MAX_WIDTH = 64 + 2;
+	static final int MAX_HEIGHT = 1024;
+
+	//the size of the board, including the walls and the floor (the same as the engine's)
+	final int width;
+	final int height;
+
+	//a row with every column filled
+	final long fullRow;
+
+	//every bit that isn't a column, which a piece hits when it's in a wall
+	//(ORed into the rows instead of being stored in them, so a full row is still just the columns)
+	private final long walls;
+	private final boolean checkEdges;
+
+	//how many longs each column takes
+	final int words;
+
+	long rows[];
+
+	//bit (Y & 63) of columns[x * words + Y / 64] is set when column x of row Y is filled
+	//(the walls are all filled, as is the floor and everything below it)
+	//anything that changes 'rows' directly has to call updateColumns() afterwards
+	final long columns[];
+
+	//goes up every time the board changes, so things worked out from it can be cached
+	int version = 0;
+
+	//the Zobrist hash of the filled cells inside the walls (the same boards always have the same hash)
+	long hash = 0;
+
+	//there's nothing in the rows above this one (it's the floor when the board's empty), so anything
+	//going through the rows can start here, which on a tall board skips most of them.
+	//It's the highest filled row after a piece is placed, but can be a bit higher after rows are removed
+	int top;
+
+	//the standard board
+	BitBoard() {
+		this(TetrisEngine.PLAYFIELD_WIDTH, TetrisEngine.PLAYFIELD_HEIGHT);
+	}
+
+	BitBoard(int width, int height) {
+		if (width < 6 || width > MAX_WIDTH || height < 6 || height > MAX_HEIGHT) {
+			throw new IllegalArgumentException("a board can be 6 to " + MAX_WIDTH + " wide and 6 to " + MAX_HEIGHT + " high, not " + width + "x" + height);
+		}
+
+		this.width = width;
+		this.height = height;
+
+		fullRow = -1L >>> (64 - (width - 2));
+		walls = ~fullRow;
+		checkEdges = width - 2 > 60;
+		words = (height + ROWS_BELOW + 63) / 64;
+		rows = new long[height + ROWS_BELOW];
+		columns = new long[width * words];
+
+		clear();
+	}
+
+	//the bit for column x in a row
+	static long bit(int x) {
+		return 1L << (x - 1);
+	}
+
+	//sets the board back to walls and empty space
+	void clear() {
+		Arrays.fill(rows, 0, height - 1, 0);
+
+		//the floor (and the padding under it) are solid
+		Arrays.fill(rows, height - 1, rows.length, fullRow);
+
+		for (int x = 0; x < width; ++x) {
+			fillColumn(x);
+		}
+		hash = 0;
+		top = height - 1;
+		++version;
+	}
+
+	//sets column x to just the floor, or all of it for the walls
+	private void fillColumn(int x) {
+		int base = x * words;
+
+		if (x == 0 || x == width - 1) {
+			Arrays.fill(columns, base, base + words, -1L);
+			return;
+		}
+
+		int floor = height - 1;
+		Arrays.fill(columns, base, base + (floor >>> 6), 0);
+		columns[base + (floor >>> 6)] = -1L << floor;
+		Arrays.fill(columns, base + (floor >>> 6) + 1, base + words, -1L);
+	}
+
+	//works out the columns (and the hash and top) again from the rows
+	void updateColumns() {
+		for (int x = 1; x < width - 1; ++x) {
+			fillColumn(x);
+		}
+
+		hash = 0;
+		top = height - 1;
+		for (int y = 0; y < height - 1; ++y) {
+			if (rows[y] != 0 && y < top) {
+				top = y;
+			}
+
+			for (long cells = rows[y]; cells != 0; cells &= cells - 1) {
+				int x = Long.numberOfTrailingZeros(cells) + 1;
+				columns[x * words + (y >>> 6)] |= 1L << y;
+			}
+
+			hash ^= Zobrist.row(rows[y], y);
+		}
+		++version;
+	}
+
+	//how many empty cells there are in column x, starting at row y and going down
+	int emptyBelow(int x, int y) {
+		int index = x * words + (y >>> 6);
+
+		long bits = columns[index] >>> y;
+		if (bits != 0) {
+			return Long.numberOfTrailingZeros(bits);
+		}
+
+		//the floor is always there, so this stops
+		int empty = 64 - (y & 63);
+		while ((bits = columns[++index]) == 0) {
+			empty += 64;
+		}
+		return empty + Long.numberOfTrailingZeros(bits);
+	}
+
+	//how many rows a piece can fall from where it is before it hits something
+	//each column of the piece only has to look at the empty bits under its lowest cell
+	int dropDistance(int shape, int rotation, int posX, int posY) {
+		int piece = PieceTable.pieceIndex(shape, rotation);
+		int distance = height;
+
+		for (int x = PieceTable.minX[piece]; x <= PieceTable.maxX[piece]; ++x) {
+			int below = posY + PieceTable.bottomY[piece * 4 + x] + 1;
+			distance = Math.min(distance, emptyBelow(posX + x, below));
+		}
+
+		return distance;
+	}
+
+	boolean doesPieceFit(int shape, int rotation, int posX, int posY) {
+		int piece = PieceTable.pieceIndex(shape, rotation);
+
+		//the bit the piece's leftmost column goes in
+		int shift = posX - 1 + PieceTable.minX[piece];
+
+		if (checkEdges && (shift < 0 || shift + PieceTable.maxX[piece] - PieceTable.minX[piece] >= width - 2)) {
+			return false;
+		}
+
+		//in the left wall the shift is negative, and Java only uses the bottom 6 bits of it,
+		//so the piece's leftmost column ends up in the wall bits at the top
+		long mask[] = PieceTable.rowBits[piece];
+
+		return (((rows[posY    ] | walls) & (mask[0] << shift)) |
+				((rows[posY + 1] | walls) & (mask[1] << shift)) |
+				((rows[posY + 2] | walls) & (mask[2] << shift)) |
+				((rows[posY + 3] | walls) & (mask[3] << shift))) == 0;
+	}
+
+	//copies a piece onto the board
+	void placePiece(int shape, int rotation, int posX, int posY) {
+		int piece = PieceTable.pieceIndex(shape, rotation);
+		long mask[] = PieceTable.rowBits[piece];
+		int shift = posX - 1 + PieceTable.minX[piece];
+
+		for (int y = PieceTable.minY[piece]; y <= PieceTable.maxY[piece]; ++y) {
+			rows[posY + y] |= mask[y] << shift;
+		}
+		top = Math.min(top, posY + PieceTable.minY[piece]);
+
+		for (int cell = piece * 4; cell < piece * 4 + 4; ++cell) {
+			int x = posX + PieceTable.cellX[cell];
+			int y = posY + PieceTable.cellY[cell];
+			columns[x * words + (y >>> 6)] |= 1L << y;
+			hash ^= Zobrist.cell(x, y);
+		}
+		++version;
+	}
+
+	boolean isRowFull(int y) {
+		return rows[y] == fullRow;
+	}
+
+	//(the other board has to be the same size)
+	void copyFrom(BitBoard other) {
+		//the rows above both tops are empty on both boards already
+		int from = Math.min(top, other.top);
+		System.arraycopy(other.rows, from, rows, from, rows.length - from);
+		System.arraycopy(other.columns, 0, columns, 0, columns.length);
+		hash = other.hash;
+		top = other.top;
+		++version;
+	}
+
+	//deletes a row, moving everything above it down one
+	void removeRow(int y) {
+		//a row above the top is already empty, and so is everything above it
+		if (y < top) {
+			return;
+		}
+
+		hash ^= Zobrist.row(rows[y], y);
+		for (int above = top; above < y; ++above) {
+			hash ^= Zobrist.moveRow(rows[above], above, above + 1);
+		}
+
+		System.arraycopy(rows, top, rows, top + 1, y - top);
+		rows[top] = 0;
+		++top;
+		removeFromColumns(y);
+		++version;
+	}
+
+	//deletes every full row at once and returns how many there were
+	//(the engine flashes them first, this is for looking ahead without a playfield)
+	int removeFullRows() {
+		int to = height - 2;
+
+		//skip the floor, and move each row down past the full ones below it
+		int removed = 0;
+		for (int from = to; from >= top; --from) {
+			if (rows[from] != fullRow) {
+				//the cells move from one row's keys to the other's
+				if (from != to) {
+					hash ^= Zobrist.moveRow(rows[from], from, to);
+				}
+				rows[to--] = rows[from];
+			} else {
+				hash ^= Zobrist.row(fullRow, from);
+
+				//the full rows below this one have already gone, which moved it down
+				removeFromColumns(from + removed);
+				++removed;
+			}
+		}
+
+		for (; to >= top; --to) {
+			rows[to] = 0;
+		}
+
+		if (removed != 0) {
+			top += removed;
+			++version;
+		}
+
+		return removed;
+	}
+
+	//takes row y out of every column, the bits above it move down one
+	//(the walls are filled all the way, so they stay as they are)
+	private void removeFromColumns(int y) {
+		int word = y >>> 6;
+		long above = (1L << y) - 1;			//the bits above row y in its word (shifts only use the bottom 6 bits of y)
+
+		for (int x = 1; x < width - 1; ++x) {
+			int base = x * words;
+
+			//the word with row y in it keeps what's under it, and the rest move down one bit,
+			//with the bottom row of each word above going into the top of the one under it
+			long column = columns[base + word];
+			long carry = word > 0 ? columns[base + word - 1] >>> 63 : 0;
+			columns[base + word] = (column & (-2L << y)) | ((column & above) << 1) | carry;
+
+			for (int w = word - 1; w >= 0; --w) {
+				carry = w > 0 ? columns[base + w - 1] >>> 63 : 0;
+				columns[base + w] = columns[base + w] << 1 | carry;
+			}
+		}
+	}
+}
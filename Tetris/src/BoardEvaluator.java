@@ -0,0 +1,10 @@
+
+// Scores a board for AutoPlayer, higher is better.
+// The board is what the playfield would look like after a piece is placed
+// (with any full rows already removed), and linesCleared is how many rows that removed.
+// AutoPlayer calls this thousands of times per piece, so it shouldn't allocate anything.
+
+
+interface BoardEvaluator {
+	double evaluate(BitBoard board, int linesCleared);
+}
@@ -0,0 +1,276 @@
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+
+import java.awt.image.BufferedImage;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+import javax.swing.JComponent;
+
+
+// Draws the game with coloured tiles instead of putting text into a JTextArea.
+// Run with -Dtetris.renderer=graphics to use it (the text box is still the default).
+//
+// It uses the same layout as TextRenderer, one cell per character, and takes the
+// frame from there, so the playfields, pieces and HUD come from the same engine data.
+// Every tile and character is drawn once into a sprite atlas when it starts, and after
+// that a frame is just copying sprites into a back buffer for the cells that changed,
+// then repainting only those cells. There's no text layout or fonts involved per frame.
+//
+// The images are plain BufferedImages (compatible with the screen when there is one),
+// so it all works with the software pipeline, without a GPU or even a display
+// (a VolatileImage can lose its contents at any time, and would need redrawing from scratch).
+//
+// Run with 'java -Djava.awt.headless=true BoardView [picture.png]' to time it without a window
+
+
+class BoardView extends JComponent {
+
+	private static final long serialVersionUID = 1L;
+
+	static final Color BACKGROUND = Color.BLACK;
+	static final Color TEXT = Color.LIGHT_GRAY;
+
+	//the NES-ish colour of each shape, in the order of the TetrisEngine.TILE_XXX constants
+	static final Color TILE_COLOURS[] = {
+		new Color(0, 200, 230),		//I
+		new Color(230, 210, 0),		//O
+		new Color(170, 0, 200),		//T
+		new Color(0, 70, 230),		//J
+		new Color(240, 130, 0),		//L
+		new Color(0, 190, 40),		//S
+		new Color(220, 0, 30),		//Z
+	};
+
+	//the atlas has a sprite for every ASCII character, then the tiles
+	static final int SPRITE_TILE = 128;											//+ shape
+	static final int SPRITE_WALL = SPRITE_TILE + TetrisEngine.TILE_BLANK;
+	static final int SPRITE_CLEARED = SPRITE_WALL + 1;
+	static final int SPRITE_GUIDE = SPRITE_CLEARED + 1;
+	static final int NUM_SPRITES = SPRITE_GUIDE + 1;
+
+	private final TextRenderer renderer;
+
+	final int cellWidth;
+	final int cellHeight;
+
+	private final BufferedImage atlas;
+	private final BufferedImage buffer;				//what the component looks like, kept between frames
+	private final Graphics2D bufferGraphics;
+
+	//which sprite is in each cell of the buffer, in the same positions as TextRenderer.frame
+	private final short shown[] = new short[TextRenderer.NUM_LINES * TextRenderer.LINE_STRIDE];
+
+	private final Rectangle clip = new Rectangle();
+
+	BoardView(TextRenderer renderer, Font font) {
+		this.renderer = renderer;
+
+		//the cells are the size of a character, so it's the same size as the text box
+		BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+		FontMetrics metrics = scratch.getGraphics().getFontMetrics(font);
+		cellWidth = metrics.charWidth('M');
+		cellHeight = metrics.getHeight();
+
+		atlas = createBuffer(NUM_SPRITES * cellWidth, cellHeight);
+		drawAtlas(font);
+
+		buffer = createBuffer(TextRenderer.LINE_WIDTH * cellWidth, TextRenderer.NUM_LINES * cellHeight);
+		bufferGraphics = buffer.createGraphics();
+		bufferGraphics.setColor(BACKGROUND);
+		bufferGraphics.fillRect(0, 0, buffer.getWidth(), buffer.getHeight());
+
+		//a blank frame is all spaces, which is what the buffer has in it now
+		Arrays.fill(shown, (short) ' ');
+
+		setOpaque(true);
+		setPreferredSize(new Dimension(buffer.getWidth(), buffer.getHeight()));
+	}
+
+	//an image that's quick to copy to the screen, or just an RGB one if there isn't a screen
+	private static BufferedImage createBuffer(int width, int height) {
+		if (GraphicsEnvironment.isHeadless()) {
+			return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		}
+
+		return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration().createCompatibleImage(width, height);
+	}
+
+	//draws every sprite once, so the text can be antialiased and the tiles shaded for free
+	private void drawAtlas(Font font) {
+		Graphics2D g = atlas.createGraphics();
+		g.setColor(BACKGROUND);
+		g.fillRect(0, 0, atlas.getWidth(), atlas.getHeight());
+
+		g.setFont(font);
+		g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		g.setColor(TEXT);
+
+		int baseline = g.getFontMetrics().getAscent();
+		for (char c = '!'; c < 127; ++c) {
+			g.setClip(c * cellWidth, 0, cellWidth, cellHeight);
+			g.drawString(String.valueOf(c), c * cellWidth, baseline);
+		}
+		g.setClip(null);
+
+		for (int shape = 0; shape < TILE_COLOURS.length; ++shape) {
+			drawTile(g, SPRITE_TILE + shape, TILE_COLOURS[shape]);
+		}
+
+		drawTile(g, SPRITE_WALL, Color.GRAY);
+		drawTile(g, SPRITE_CLEARED, Color.WHITE);
+
+		//the guide is just an outline
+		g.setColor(Color.DARK_GRAY);
+		g.drawRect(SPRITE_GUIDE * cellWidth + 1, 1, cellWidth - 3, cellHeight - 3);
+
+		g.dispose();
+	}
+
+	//a block with a light top left and a dark bottom right
+	private void drawTile(Graphics2D g, int sprite, Color colour) {
+		int x = sprite * cellWidth;
+
+		g.setColor(colour.darker());
+		g.fillRect(x, 0, cellWidth - 1, cellHeight - 1);
+		g.setColor(colour.brighter());
+		g.fillRect(x, 0, cellWidth - 2, cellHeight - 2);
+		g.setColor(colour);
+		g.fillRect(x + 1, 1, cellWidth - 3, cellHeight - 3);
+	}
+
+	//which sprite goes in a cell, for a character TextRenderer drew there
+	private int sprite(int pos) {
+		char c = renderer.frame[pos];
+
+		if (TextRenderer.TILE_CELLS[pos]) {
+			if (c >= 'A' && c < 'A' + TILE_COLOURS.length) {
+				return SPRITE_TILE + c - 'A';			//stuck tiles and the next piece
+			} else if (c >= 'a' && c < 'a' + TILE_COLOURS.length) {
+				return SPRITE_TILE + c - 'a';			//the current piece
+			} else if (c == '#') {
+				return SPRITE_WALL;
+			} else if (c == '=') {
+				return SPRITE_CLEARED;
+			} else if (c == '.') {
+				return SPRITE_GUIDE;
+			}
+		}
+
+		return c < 128 ? c : '?';
+	}
+
+	//copies the lines TextRenderer.render() marked as dirty into the buffer, and repaints the cells that changed
+	//returns how many lines changed
+	int draw() {
+		int changedLines = 0;
+
+		for (int line = 0; line < TextRenderer.NUM_LINES; ++line) {
+			if (!renderer.dirty[line]) {
+				continue;
+			}
+
+			int first = -1;
+			int last = -1;
+
+			for (int column = 0; column < TextRenderer.LINE_WIDTH; ++column) {
+				int pos = line * TextRenderer.LINE_STRIDE + column;
+				int sprite = sprite(pos);
+
+				if (sprite == shown[pos]) {
+					continue;
+				}
+				shown[pos] = (short) sprite;
+
+				int x = column * cellWidth;
+				int y = line * cellHeight;
+				bufferGraphics.drawImage(atlas, x, y, x + cellWidth, y + cellHeight,
+						sprite * cellWidth, 0, (sprite + 1) * cellWidth, cellHeight, null);
+
+				if (first == -1) {
+					first = column;
+				}
+				last = column;
+			}
+
+			if (first != -1) {
+				repaint(first * cellWidth, line * cellHeight, (last - first + 1) * cellWidth, cellHeight);
+				++changedLines;
+			}
+		}
+
+		return changedLines;
+	}
+
+	//only the part Swing asks for is copied from the buffer
+	protected void paintComponent(Graphics g) {
+		Rectangle area = g.getClipBounds(clip);
+		if (area == null) {
+			area = clip;
+			area.setBounds(0, 0, getWidth(), getHeight());
+		}
+
+		g.setColor(BACKGROUND);
+		g.fillRect(area.x, area.y, area.width, area.height);
+
+		int right = Math.min(area.x + area.width, buffer.getWidth());
+		int bottom = Math.min(area.y + area.height, buffer.getHeight());
+		if (right > area.x && bottom > area.y) {
+			g.drawImage(buffer, area.x, area.y, right, bottom, area.x, area.y, right, bottom, null);
+		}
+	}
+
+	//draws a few thousand frames without a window to see how long it takes
+	public static void main(String[] args) throws IOException {
+		TetrisEngine engine = new TetrisEngine();
+		engine.numPlayers = 2;
+		engine.startGame(1);
+
+		TextRenderer renderer = new TextRenderer(engine);
+		BoardView view = new BoardView(renderer, new Font("Courier", Font.PLAIN, 16));
+
+		int frames = 0;
+		long changed = 0;
+		long total = 0;
+
+		for (int i = 0; i < 20000; ++i) {
+			if (engine.isGameOver()) {
+				engine.startGame(i);
+			}
+			engine.step(i & 1, (i >> 1) % 6);
+			engine.tick();
+
+			long start = System.nanoTime();
+			renderer.render();
+			int lines = view.draw();
+			long time = System.nanoTime() - start;
+
+			//skip the first half so everything has been JIT compiled
+			if (i >= 10000) {
+				total += time;
+				changed += lines;
+				++frames;
+			}
+		}
+
+		System.out.printf("%dx%d cells, %d frames: %.1fus per frame, %.1f lines changed per frame\n",
+				TextRenderer.LINE_WIDTH, TextRenderer.NUM_LINES, frames, total / 1000.0 / frames, (double) changed / frames);
+
+		if (args.length > 0) {
+			ImageIO.write(view.buffer, "png", new File(args[0]));
+			System.out.printf("saved the last frame to %s\n", args[0]);
+		}
+	}
+}
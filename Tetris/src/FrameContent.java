@@ -0,0 +1,48 @@
+
+import javax.swing.text.GapContent;
+
+
+// The text box's content, but with a way to overwrite characters in place.
+// Once a frame has been put in with setText, the lines never change length,
+// so the renderer can copy changed lines straight into the character array
+// without any Strings, document events or line layout.
+// The text box then only needs a repaint() of the lines that changed.
+//
+// overwrite() doesn't take the document's write lock or fire a DocumentEvent, which is only safe
+// because of how Tetris uses it:
+//	- it's only called on the Swing thread, which is the only thread that touches the document
+//	  (painting takes the read lock on the same thread, so it can never see half a line)
+//	- the length never changes, so the document's line elements and the caret stay where they are,
+//	  and nothing that keeps positions in the text (undo, highlights) is affected
+//	- the text area isn't editable, and nothing else listens to the document, so the only thing
+//	  that needs to know about the change is the view, which gets the repaint() instead of an event
+// Anything else using it (or adding a DocumentListener) would need the lock and the events
+
+
+class FrameContent extends GapContent {
+
+	private static final long serialVersionUID = 1L;
+
+	//copies 'length' characters from 'source' over the top of the content, starting at 'where'
+	//this doesn't change the length, so the document's lines stay where they are
+	void overwrite(int where, char source[], int sourcePos, int length) {
+		char array[] = (char[]) getArray();
+		int gapStart = getGapStart();
+		int gapSize = getGapEnd() - gapStart;
+
+		//anything before the gap is stored as normal
+		if (where < gapStart) {
+			int before = Math.min(length, gapStart - where);
+			System.arraycopy(source, sourcePos, array, where, before);
+
+			where += before;
+			sourcePos += before;
+			length -= before;
+		}
+
+		//and anything after it is moved along by the size of the gap
+		if (length > 0) {
+			System.arraycopy(source, sourcePos, array, where + gapSize, length);
+		}
+	}
+}
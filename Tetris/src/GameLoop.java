@@ -0,0 +1,210 @@
+
+import java.awt.EventQueue;
+
+import java.io.IOException;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+
+// Runs the game at the NES frame rate using System.nanoTime.
+// This replaces the Swing timers, which could only be set in whole milliseconds
+// (so 1 frame became 16ms instead of 16.64ms, and every level drifted from the NES).
+// A background thread wakes up once per frame and asks the Swing thread to catch up.
+// The Swing thread then runs however many whole frames have passed since the last
+// one (the accumulator), so every player's gravity moves in exact frame units
+// no matter how late the wake up was, and the game only gets drawn once afterwards.
+//
+// Run with -Dtetris.jitter=true to print how far the drops are from when they should have happened
+
+
+class GameLoop implements Runnable {
+
+	//the NES runs at 60.0988 frames per second (NTSC)
+	static final double FRAMES_PER_SECOND = 60.0988;
+	static final long FRAME_NANOS = Math.round(1000000000.0 / FRAMES_PER_SECOND);
+
+	//if the Swing thread gets stuck for longer than this (e.g. dragging the window),
+	//give up on the frames it missed rather than running them all at once
+	static final int MAX_CATCH_UP_FRAMES = 10;
+
+	//how often the jitter gets printed, in frames
+	static final int JITTER_REPORT_FRAMES = 600;
+
+	private final TetrisEngine engine;
+	private final Runnable redraw;				//called on the Swing thread after some frames have run
+
+	//players being played by AutoPlayer (null for a person), these get a chance to move before every frame
+	final AutoPlayer autoPlayers[];
+
+	//the keys each person is holding, which are turned into moves at the start of every frame
+	final PlayerInput inputs[];
+
+	//when playing on a VersusServer the frames are run there, so this just picks up what it sent
+	VersusClient client = null;
+
+	//how long from when a frame should have happened until it's been drawn (null unless -Dtetris.metrics is set)
+	LatencyHistogram tickToRender = null;
+
+	private Thread thread = null;
+	private volatile boolean running = false;
+
+	private final AtomicBoolean pending = new AtomicBoolean(false);		//set when runFrames is already waiting on the Swing thread
+	private long lastFrameTime;				//when the last frame that ran should have happened (only used on the Swing thread)
+
+	//jitter measurement
+	private final boolean measureJitter = Boolean.getBoolean("tetris.jitter");
+	private long framesSinceReport = 0;
+	private long drops = 0;
+	private long jitterTotal = 0;
+	private long jitterSquaredTotal = 0;
+	private long jitterMin = Long.MAX_VALUE;
+	private long jitterMax = 0;
+
+	//this is what gets run on the Swing thread (it's kept so nothing is allocated each frame)
+	private final Runnable runFrames = new Runnable() {
+		public void run() {
+			pending.set(false);
+
+			if (client != null) {
+				pollClient();
+				return;
+			}
+
+			long now = System.nanoTime();
+			int frames = 0;
+
+			while (now - lastFrameTime >= FRAME_NANOS) {
+				lastFrameTime += FRAME_NANOS;
+
+				for (int player = 0; player < engine.numPlayers; ++player) {
+					inputs[player].update();
+				}
+
+				for (AutoPlayer autoPlayer : autoPlayers) {
+					if (autoPlayer != null) {
+						autoPlayer.update();
+					}
+				}
+
+				int events = engine.tick();
+
+				//any movement from tick() is the piece dropping, so see how late it was
+				if (measureJitter && (events & (TetrisEngine.EVENT_MOVED | TetrisEngine.EVENT_LOCKED)) != 0) {
+					recordJitter(now - lastFrameTime);
+				}
+
+				if (++frames == MAX_CATCH_UP_FRAMES) {
+					lastFrameTime = now;
+					break;
+				}
+			}
+
+			if (frames != 0) {
+				redraw.run();
+
+				if (tickToRender != null) {
+					tickToRender.record(System.nanoTime() - lastFrameTime);
+				}
+
+				if (measureJitter && (framesSinceReport += frames) >= JITTER_REPORT_FRAMES) {
+					reportJitter();
+				}
+			}
+		}
+	};
+
+	GameLoop(TetrisEngine engine, Runnable redraw) {
+		this.engine = engine;
+		this.redraw = redraw;
+
+		autoPlayers = new AutoPlayer[engine.players.length];
+
+		inputs = new PlayerInput[engine.players.length];
+		for (int player = 0; player < inputs.length; ++player) {
+			inputs[player] = new PlayerInput(engine, player);
+		}
+	}
+
+	//starts the loop (if it isn't already going), must be called on the Swing thread
+	void start() {
+		//it keeps running between games, so the frames stay evenly spaced
+		if (running) {
+			return;
+		}
+
+		lastFrameTime = System.nanoTime();
+		running = true;
+		thread = new Thread(this, "Tetris game loop");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	void stop() {
+		running = false;
+		LockSupport.unpark(thread);
+	}
+
+	//the background thread, which just wakes up on time
+	public void run() {
+		//wake up in step with the frames the Swing thread is expecting
+		//(Thread.start makes sure lastFrameTime can be seen here)
+		long nextFrame = lastFrameTime;
+
+		while (running) {
+			nextFrame += FRAME_NANOS;
+
+			//parkNanos can return early, so keep going until it's actually time
+			long wait;
+			while (running && (wait = nextFrame - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+			}
+
+			//if the Swing thread hasn't got round to the last one yet, it will pick this frame up as well
+			if (pending.compareAndSet(false, true)) {
+				EventQueue.invokeLater(runFrames);
+			}
+		}
+	}
+
+	private void pollClient() {
+		try {
+			if (client.poll() == -1) {
+				System.out.printf("The server has gone away\n");
+				client = null;
+				stop();
+			}
+		} catch (IOException ex) {
+			System.out.printf("Lost the connection to the server: %s\n", ex.getMessage());
+			client = null;
+			stop();
+		}
+
+		redraw.run();
+	}
+
+	private void recordJitter(long late) {
+		++drops;
+		jitterTotal += late;
+		jitterSquaredTotal += late * late;
+		jitterMin = Math.min(jitterMin, late);
+		jitterMax = Math.max(jitterMax, late);
+	}
+
+	private void reportJitter() {
+		if (drops != 0) {
+			double mean = (double) jitterTotal / drops;
+			double deviation = Math.sqrt(Math.max(0.0, (double) jitterSquaredTotal / drops - mean * mean));
+
+			System.out.printf("drop jitter over %d drops: mean %.1fus, stddev %.1fus, min %.1fus, max %.1fus\n",
+					drops, mean / 1000.0, deviation / 1000.0, jitterMin / 1000.0, jitterMax / 1000.0);
+		}
+
+		framesSinceReport = 0;
+		drops = 0;
+		jitterTotal = 0;
+		jitterSquaredTotal = 0;
+		jitterMin = Long.MAX_VALUE;
+		jitterMax = 0;
+	}
+}
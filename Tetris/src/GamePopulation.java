@@ -0,0 +1,348 @@
+
+// Lots of one player games at once, for bot farms and Monte Carlo rollouts.
+// A TetrisEngine is a handful of objects per game (the engine, PlayerStates, playfields,
+// BitBoards and a PieceQueue), which adds up with a million of them. Here every field of every
+// game is one element of a big primitive array (struct of arrays), and the boards are just
+// the bitboard rows one after another, so a million games is a few dozen arrays.
+//
+// The rules are the same as TetrisEngine with no entry or line clear delays
+// (the same pieces for the same seed, the same gravity, scoring and levels), but there's no
+// playfield of colours as nothing gets drawn. stepAll() and tickAll() run every game at once.
+// Each game has its own RNG (two longs, split off the seed like player 1's in TetrisEngine), and the pieces
+// are picked one at a time with the NES randomizer instead of a batch at a time, which gives the same pieces.
+//
+// Run with 'java GamePopulation [games] [frames]' to see how fast it goes and how much memory it takes
+
+
+class GamePopulation {
+
+	//each game's rows of the board, with the same solid rows under the floor as BitBoard
+	static final int ROWS = TetrisEngine.PLAYFIELD_HEIGHT + BitBoard.ROWS_BELOW;
+
+	//the rows are ints with the walls in them, the way BitBoard used to be before it went to longs,
+	//as the standard board fits in an int and it's half the memory: bit (x + COLUMN_OFFSET) is column x,
+	//the offset being so a piece at X = -4 can still be shifted left instead of right
+	static final int COLUMN_OFFSET = 4;
+	static final int FULL_ROW = -1;
+	static final int EMPTY_ROW = ~(((1 << (TetrisEngine.PLAYFIELD_WIDTH - 2)) - 1) << (COLUMN_OFFSET + 1));
+
+	//no input for a game this frame (for stepAll)
+	static final byte NO_INPUT = -1;
+
+	final int numGames;
+
+	//one element per game
+	final byte x[];
+	final byte y[];
+	final byte shape[];
+	final byte rotation[];
+	final byte next[];
+	final byte gravityFrames[];
+	final byte gravityCounter[];
+	final boolean delayDrop[];			//delayTileDropFromTop
+	final boolean lost[];
+	final short level[];
+	final short dropCounter[];
+	final short linesThisLevel[];
+	final int score[];
+	final int lines[];
+	final long rngSeed[];				//each game's SplitRandom
+	final long rngGamma[];
+
+	//ROWS ints per game
+	final int rows[];
+
+	//for working out the pieces, with one game's RNG copied in at a time
+	private final SplitRandom seeds = new SplitRandom();
+	private final SplitRandom rng = new SplitRandom();
+
+	GamePopulation(int numGames) {
+		this.numGames = numGames;
+
+		x = new byte[numGames];
+		y = new byte[numGames];
+		shape = new byte[numGames];
+		rotation = new byte[numGames];
+		next = new byte[numGames];
+		gravityFrames = new byte[numGames];
+		gravityCounter = new byte[numGames];
+		delayDrop = new boolean[numGames];
+		lost = new boolean[numGames];
+		level = new short[numGames];
+		dropCounter = new short[numGames];
+		linesThisLevel = new short[numGames];
+		score = new int[numGames];
+		lines = new int[numGames];
+		rngSeed = new long[numGames];
+		rngGamma = new long[numGames];
+
+		rows = new int[numGames * ROWS];
+	}
+
+	//roughly how much memory each game takes (the array contents, not counting the array headers)
+	static int bytesPerGame() {
+		return 7 * 1 + 2 * 1 + 3 * 2 + 2 * 4 + 2 * 8 + ROWS * 4;
+	}
+
+	//starts a game the same way TetrisEngine.startGame(seed) does
+	void startGame(int game, long seed, int startLevel) {
+		seeds.setSeed(seed);
+		rng.splitFrom(seeds);
+		rngSeed[game] = rng.seed;
+		rngGamma[game] = rng.gamma;
+
+		int base = game * ROWS;
+		for (int row = 0; row < TetrisEngine.PLAYFIELD_HEIGHT - 1; ++row) {
+			rows[base + row] = EMPTY_ROW;
+		}
+		for (int row = TetrisEngine.PLAYFIELD_HEIGHT - 1; row < ROWS; ++row) {
+			rows[base + row] = FULL_ROW;
+		}
+
+		level[game] = (short) startLevel;
+		score[game] = 0;
+		lines[game] = 0;
+		linesThisLevel[game] = 0;
+		dropCounter[game] = 0;
+		delayDrop[game] = false;
+		lost[game] = false;
+		gravityCounter[game] = 0;
+
+		next[game] = (byte) nextInt(game, 7);
+		createNewBlock(game);
+		setSpeed(game);
+	}
+
+	//handles one input for every game (NO_INPUT to leave a game alone)
+	void stepAll(byte inputs[]) {
+		for (int game = 0; game < numGames; ++game) {
+			if (inputs[game] != NO_INPUT && !lost[game]) {
+				step(game, inputs[game]);
+			}
+		}
+	}
+
+	//advances every game by one frame
+	void tickAll() {
+		for (int game = 0; game < numGames; ++game) {
+			if (!lost[game]) {
+				tick(game);
+			}
+		}
+	}
+
+	void step(int game, int input) {
+		switch (input) {
+		case TetrisEngine.INPUT_LEFT:
+			if (fits(game, shape[game], rotation[game], x[game] - 1, y[game])) {
+				--x[game];
+			}
+			break;
+
+		case TetrisEngine.INPUT_RIGHT:
+			if (fits(game, shape[game], rotation[game], x[game] + 1, y[game])) {
+				++x[game];
+			}
+			break;
+
+		case TetrisEngine.INPUT_SOFT_DROP:
+			if (fits(game, shape[game], rotation[game], x[game], y[game] + 1)) {
+				++dropCounter[game];
+				moveDown(game);
+			}
+			break;
+
+		case TetrisEngine.INPUT_HARD_DROP:
+			while (!lost[game] && fits(game, shape[game], rotation[game], x[game], y[game] + 1)) {
+				++dropCounter[game];
+				moveDown(game);
+			}
+			break;
+
+		case TetrisEngine.INPUT_ROTATE_LEFT:
+			if (fits(game, shape[game], rotation[game] - 1, x[game], y[game])) {
+				rotation[game] = (byte) ((rotation[game] - 1) & 3);
+			}
+			break;
+
+		case TetrisEngine.INPUT_ROTATE_RIGHT:
+			if (fits(game, shape[game], rotation[game] + 1, x[game], y[game])) {
+				rotation[game] = (byte) ((rotation[game] + 1) & 3);
+			}
+			break;
+
+		case TetrisEngine.INPUT_RELEASE_DROP:
+			if (fits(game, shape[game], rotation[game], x[game], y[game] + 1)) {
+				dropCounter[game] = 0;
+			}
+			break;
+		}
+	}
+
+	void tick(int game) {
+		if (++gravityCounter[game] < gravityFrames[game]) {
+			return;
+		}
+		gravityCounter[game] = 0;
+
+		if (delayDrop[game]) {
+			delayDrop[game] = false;
+			return;
+		}
+
+		moveDown(game);
+	}
+
+	//TetrisEngine.moveBlockDown, with the line clear and the next piece straight away
+	private void moveDown(int game) {
+		if (fits(game, shape[game], rotation[game], x[game], y[game] + 1)) {
+			++y[game];
+			return;
+		}
+
+		//the piece is stuck, so copy it onto the board
+		int mask[] = PieceTable.rowMasks[PieceTable.pieceIndex(shape[game], rotation[game])];
+		int shift = x[game] + COLUMN_OFFSET;
+		int top = game * ROWS + y[game];
+
+		rows[top] |= mask[0] << shift;
+		rows[top + 1] |= mask[1] << shift;
+		rows[top + 2] |= mask[2] << shift;
+		rows[top + 3] |= mask[3] << shift;
+
+		doScoring(game, removeFullRows(game));
+
+		delayDrop[game] = y[game] < 6;
+
+		//the next piece
+		createNewBlock(game);
+		gravityCounter[game] = 0;
+
+		if (!fits(game, shape[game], rotation[game], x[game], y[game])) {
+			lost[game] = true;
+		}
+	}
+
+	//BitBoard.removeFullRows for one game's rows
+	private int removeFullRows(int game) {
+		int base = game * ROWS;
+		int to = base + TetrisEngine.PLAYFIELD_HEIGHT - 2;
+
+		for (int from = to; from >= base; --from) {
+			if (rows[from] != FULL_ROW) {
+				rows[to--] = rows[from];
+			}
+		}
+
+		int removed = to + 1 - base;
+		for (; to >= base; --to) {
+			rows[to] = EMPTY_ROW;
+		}
+
+		return removed;
+	}
+
+	private void doScoring(int game, int rowsCleared) {
+		score[game] += TetrisEngine.scoreLookup[rowsCleared] * (level[game] + 1) + dropCounter[game];
+		dropCounter[game] = 0;
+
+		lines[game] += rowsCleared;
+		linesThisLevel[game] += rowsCleared;
+
+		if (linesThisLevel[game] >= 10 && lines[game] >= (level[game] + 1) * 10) {
+			linesThisLevel[game] %= 10;
+			++level[game];
+			setSpeed(game);
+		}
+	}
+
+	private void setSpeed(int game) {
+		gravityFrames[game] = (byte) (level[game] >= 29 ? 1 : TetrisEngine.speedLookup[level[game]]);
+	}
+
+	private void createNewBlock(int game) {
+		x[game] = TetrisEngine.PLAYFIELD_WIDTH / 2 - 1;
+		y[game] = 0;
+		rotation[game] = 0;
+		shape[game] = next[game];
+
+		//the NES reroll, as in TetrisEngine.createNewBlock
+		int piece = nextInt(game, 8);
+		if (piece == shape[game] || piece == 7) {
+			piece = nextInt(game, 7);
+		}
+		next[game] = (byte) piece;
+	}
+
+	boolean fits(int game, int shape, int rotation, int posX, int posY) {
+		int mask[] = PieceTable.rowMasks[PieceTable.pieceIndex(shape, rotation)];
+		int shift = posX + COLUMN_OFFSET;
+		int top = game * ROWS + posY;
+
+		return ((rows[top    ] & (mask[0] << shift)) |
+				(rows[top + 1] & (mask[1] << shift)) |
+				(rows[top + 2] & (mask[2] << shift)) |
+				(rows[top + 3] & (mask[3] << shift))) == 0;
+	}
+
+	//SplitRandom.nextInt(bound), using this game's RNG
+	private int nextInt(int game, int bound) {
+		rng.seed = rngSeed[game];
+		rng.gamma = rngGamma[game];
+
+		int value = rng.nextInt(bound);
+		rngSeed[game] = rng.seed;
+		return value;
+	}
+
+	public static void main(String[] args) {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int frames = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long before = runtime.totalMemory() - runtime.freeMemory();
+
+		GamePopulation population = new GamePopulation(games);
+		byte inputs[] = new byte[games];
+
+		System.gc();
+		long after = runtime.totalMemory() - runtime.freeMemory();
+
+		for (int game = 0; game < games; ++game) {
+			population.startGame(game, game, 0);
+		}
+
+		System.out.printf("%d games: %d bytes per game in the arrays, %.1f bytes per game measured on the heap\n",
+				games, bytesPerGame(), (double) (after - before) / games);
+
+		//random inputs, about one every 4 frames per game, made up from a cheap hash so it doesn't slow things down
+		long start = System.nanoTime();
+		int hash = 1;
+
+		for (int frame = 0; frame < frames; ++frame) {
+			for (int game = 0; game < games; ++game) {
+				hash = hash * 1103515245 + 12345;
+				int r = (hash >>> 16) & 31;
+				inputs[game] = r < TetrisEngine.INPUT_RELEASE_DROP ? (byte) r : NO_INPUT;
+			}
+
+			population.stepAll(inputs);
+			population.tickAll();
+		}
+
+		double seconds = (System.nanoTime() - start) / 1000000000.0;
+
+		int alive = 0;
+		long totalLines = 0;
+		for (int game = 0; game < games; ++game) {
+			if (!population.lost[game]) {
+				++alive;
+			}
+			totalLines += population.lines[game];
+		}
+
+		System.out.printf("%d frames in %.2fs: %.1fns per game per frame, %d games still going, %d lines cleared\n",
+				frames, seconds, seconds * 1000000000.0 / ((double) games * frames), alive, totalLines);
+	}
+}
@@ -0,0 +1,50 @@
+
+// Somewhere to keep a copy of a whole game, so it can be put back exactly as it was.
+// TetrisEngine.saveSnapshot copies the game in, and loadSnapshot copies it back out.
+//
+// saveState does the same job for replays, but it's meant to be written to a file,
+// so it goes through a ByteBuffer one field at a time.
+// This is for doing it millions of times a second (e.g. a bot trying moves and undoing them,
+// or the rewind in practice mode), so it's three plain arrays made once, big enough for
+// the engine's players and board size, and copying in or out is a few System.arraycopy calls and doesn't allocate.
+//
+// The ints are laid out as:
+//	 the game:    frame, seed (2 ints each, high then low), randomizer, game state, number of players
+//	 each player: PLAYER_INTS of PlayerState (the last PieceQueue.INTS are its queue)
+// the longs are each player's BitBoard rows above the floor (the rest never change), its columns, its hash and its top,
+// and the bytes are the playfields, one after the other.
+
+
+class GameSnapshot {
+
+	static final int GAME_INTS = 7;
+	static final int PLAYER_INTS = 19 + PieceQueue.INTS;
+
+	final int maxPlayers;
+
+	//how much of each player's board there is
+	final int boardRows;
+	final int boardLongs;
+	final int boardTiles;
+
+	final int ints[];
+	final long longs[];
+	final byte tiles[];
+
+	GameSnapshot(TetrisEngine engine) {
+		maxPlayers = engine.players.length;
+
+		boardRows = engine.height - 1;
+		boardLongs = boardRows + engine.boards[0].columns.length + 2;
+		boardTiles = engine.width * engine.height;
+
+		ints = new int[GAME_INTS + maxPlayers * PLAYER_INTS];
+		longs = new long[maxPlayers * boardLongs];
+		tiles = new byte[maxPlayers * boardTiles];
+	}
+
+	//where a player's ints start
+	static int playerStart(int player) {
+		return GAME_INTS + player * PLAYER_INTS;
+	}
+}
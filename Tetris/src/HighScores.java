@@ -0,0 +1,367 @@
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+
+// Keeps every finished game's score in a file, so the top scores are still there next time.
+// Scores are kept separately for each player and starting level (starting on level 19 isn't the same game as level 0).
+//
+// The file is a log that only ever gets added to, RECORD_SIZE bytes per score:
+//	 the time (millis), the seed, score, lines, player, starting level, level at the end
+//	 and a CRC32 of the rest, all little endian
+// so if the game dies half way through writing one, the CRC is wrong and it's cut off when the file is next opened.
+//
+// Writing to the file (and waiting for it to actually be on the disk) is done by a background thread,
+// so add() only puts the score in a queue and the game never waits for the disk. Whatever scores
+// are waiting get written together, with one write and one fsync for all of them, so lots of
+// scores at once (e.g. bots) don't mean lots of fsyncs.
+//
+// The top scores for each player and level are kept in memory, worked out by reading the whole log
+// when it's opened (it's small, 32 bytes a game, so even a million games is a fraction of a second).
+//
+// Player and starting level are a byte each, so scores for anything past 255 aren't saved.
+//
+// Run with 'java HighScores [file]' to print the top scores (this only reads the file, it never changes it)
+
+
+class HighScores {
+
+	static final int RECORD_SIZE = 32;
+	static final int RECORD_TIME = 0;			//long
+	static final int RECORD_SEED = 8;			//long
+	static final int RECORD_SCORE = 16;			//int
+	static final int RECORD_LINES = 20;			//int
+	static final int RECORD_PLAYER = 24;		//byte
+	static final int RECORD_START_LEVEL = 25;	//byte
+	static final int RECORD_LEVEL = 26;			//short
+	static final int RECORD_CRC = 28;			//int, of everything before it
+
+	//how many scores are kept for each player and level
+	static final int TOP_SCORES = 10;
+
+	//the most scores written with one fsync
+	static final int MAX_BATCH = 1024;
+
+	//the biggest player and starting level that fit in a record
+	static final int MAX_PLAYER = 255;
+	static final int MAX_START_LEVEL = 255;
+
+	static class Score {
+		long time;
+		long seed;
+		int score;
+		int lines;
+		int player;
+		int startLevel;
+		int level;
+	}
+
+	private final Path file;
+	private final FileChannel channel;
+	private final boolean writable;
+
+	//the best scores for each player << 8 | starting level, highest first
+	private final Map<Integer, Score[]> top = new HashMap<Integer, Score[]>();
+	private long numScores = 0;
+
+	//there's no limit, so add() never has to wait or throw a score away
+	private final BlockingQueue<Score> queue = new LinkedBlockingQueue<Score>();
+	private final Score closeMarker = new Score();		//put in the queue to stop the writer
+	private final Thread writer;					//null when it's read only
+
+	//for seeing how well the writes are being batched
+	volatile long written = 0;
+	volatile long syncs = 0;
+
+	HighScores(Path file) throws IOException {
+		this(file, true);
+	}
+
+	//opens the scores, making the file if it doesn't exist when 'writable' is set
+	//(read only never changes the file, not even to cut off a broken score, and can't add any)
+	HighScores(Path file, boolean writable) throws IOException {
+		this.file = file;
+		this.writable = writable;
+
+		if (!writable) {
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+			load();
+			writer = null;
+			return;
+		}
+
+		if (file.getParent() != null) {
+			Files.createDirectories(file.getParent());
+		}
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		load();
+
+		writer = new Thread(new Runnable() {
+			public void run() {
+				writeScores();
+			}
+		}, "high score writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	//reads the log to find the top scores, and cuts off anything at the end that wasn't finished
+	private void load() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+		CRC32 crc = new CRC32();
+		long position = 0;
+
+		read:
+		while (true) {
+			//each read starts at a record, so less than a record is the end (or a broken one)
+			buffer.clear();
+			if (channel.read(buffer, position) < RECORD_SIZE) {
+				break;
+			}
+			buffer.flip();
+
+			while (buffer.remaining() >= RECORD_SIZE) {
+				int start = buffer.position();
+
+				crc.reset();
+				crc.update(buffer.array(), start, RECORD_CRC);
+				if ((int) crc.getValue() != buffer.getInt(start + RECORD_CRC)) {
+					break read;
+				}
+
+				Score score = new Score();
+				score.time = buffer.getLong(start + RECORD_TIME);
+				score.seed = buffer.getLong(start + RECORD_SEED);
+				score.score = buffer.getInt(start + RECORD_SCORE);
+				score.lines = buffer.getInt(start + RECORD_LINES);
+				score.player = buffer.get(start + RECORD_PLAYER) & 0xFF;
+				score.startLevel = buffer.get(start + RECORD_START_LEVEL) & 0xFF;
+				score.level = buffer.getShort(start + RECORD_LEVEL);
+				addToTop(score);
+
+				buffer.position(start + RECORD_SIZE);
+				position += RECORD_SIZE;
+			}
+		}
+
+		if (position < channel.size()) {
+			if (writable) {
+				System.out.printf("%s has a broken score at the end, it's been removed\n", file);
+				channel.truncate(position);
+				channel.position(position);
+			} else {
+				System.out.printf("%s has a broken score at the end, it's been left out\n", file);
+			}
+		} else if (writable) {
+			channel.position(position);
+		}
+	}
+
+	//adds a score, this doesn't wait for it to be written
+	//(a player or starting level that doesn't fit in a record isn't saved)
+	void add(int player, int startLevel, TetrisEngine.PlayerState p, long seed) {
+		if (!fits(player, startLevel)) {
+			return;
+		}
+
+		Score score = new Score();
+		score.time = System.currentTimeMillis();
+		score.seed = seed;
+		score.score = p.score;
+		score.lines = p.linesCleared;
+		score.player = player;
+		score.startLevel = startLevel;
+		score.level = Math.min(p.level, Short.MAX_VALUE);
+
+		addToTop(score);
+
+		queue.add(score);
+	}
+
+	private synchronized void addToTop(Score score) {
+		++numScores;
+
+		Score scores[] = top.get(key(score.player, score.startLevel));
+		if (scores == null) {
+			scores = new Score[TOP_SCORES];
+			top.put(key(score.player, score.startLevel), scores);
+		}
+
+		//find where it goes, and move the lower ones down (the first score to get there stays above any ties)
+		int pos = TOP_SCORES;
+		while (pos > 0 && (scores[pos - 1] == null || scores[pos - 1].score < score.score)) {
+			--pos;
+		}
+		if (pos < TOP_SCORES) {
+			System.arraycopy(scores, pos, scores, pos + 1, TOP_SCORES - pos - 1);
+			scores[pos] = score;
+		}
+	}
+
+	private static boolean fits(int player, int startLevel) {
+		return player >= 0 && player <= MAX_PLAYER && startLevel >= 0 && startLevel <= MAX_START_LEVEL;
+	}
+
+	private static int key(int player, int startLevel) {
+		return player << 8 | startLevel;
+	}
+
+	//the best score for a player on a starting level, or 0 if they haven't played it
+	synchronized int best(int player, int startLevel) {
+		if (!fits(player, startLevel)) {
+			return 0;
+		}
+
+		Score scores[] = top.get(key(player, startLevel));
+		return scores == null ? 0 : scores[0].score;
+	}
+
+	//the top scores, highest first (there can be fewer than TOP_SCORES)
+	synchronized ArrayList<Score> topScores(int player, int startLevel) {
+		ArrayList<Score> list = new ArrayList<Score>();
+		Score scores[] = top.get(key(player, startLevel));
+		for (int i = 0; scores != null && i < TOP_SCORES && scores[i] != null; ++i) {
+			list.add(scores[i]);
+		}
+		return list;
+	}
+
+	synchronized long numScores() {
+		return numScores;
+	}
+
+	//the background thread: waits for a score, then writes it along with any others that are waiting
+	private void writeScores() {
+		ArrayList<Score> batch = new ArrayList<Score>();
+		ByteBuffer buffer = ByteBuffer.allocate(MAX_BATCH * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		CRC32 crc = new CRC32();
+		boolean closing = false;
+
+		while (!closing) {
+			batch.clear();
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException ex) {
+				return;
+			}
+			queue.drainTo(batch, MAX_BATCH - 1);
+
+			buffer.clear();
+			for (Score score : batch) {
+				if (score == closeMarker) {
+					closing = true;
+					continue;
+				}
+
+				int start = buffer.position();
+				buffer.putLong(score.time);
+				buffer.putLong(score.seed);
+				buffer.putInt(score.score);
+				buffer.putInt(score.lines);
+				buffer.put((byte) score.player);
+				buffer.put((byte) score.startLevel);
+				buffer.putShort((short) score.level);
+
+				crc.reset();
+				crc.update(buffer.array(), start, RECORD_CRC);
+				buffer.putInt((int) crc.getValue());
+			}
+			buffer.flip();
+
+			if (!buffer.hasRemaining()) {
+				continue;
+			}
+
+			try {
+				int count = buffer.remaining() / RECORD_SIZE;
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				channel.force(false);
+
+				written += count;
+				++syncs;
+			} catch (IOException ex) {
+				System.out.printf("Couldn't save the high scores to %s: %s\n", file, ex.getMessage());
+			}
+		}
+	}
+
+	//writes anything that's still waiting, and closes the file
+	void close() throws IOException {
+		if (writer != null) {
+			try {
+				queue.put(closeMarker);
+				writer.join();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		channel.close();
+	}
+
+	//closes it when the program exits (e.g. when the window is closed), so no scores are lost
+	void closeOnExit() {
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				try {
+					close();
+				} catch (IOException ex) {
+					System.out.printf("Couldn't close the high scores: %s\n", ex.getMessage());
+				}
+			}
+		}));
+	}
+
+	//where the scores go if -Dtetris.scores isn't set
+	static Path defaultFile() {
+		return Paths.get(System.getProperty("user.home"), ".tetris-scores");
+	}
+
+	//prints the top scores for everything that's been played
+	public static void main(String[] args) throws IOException {
+		Path file = args.length > 0 ? Paths.get(args[0]) : defaultFile();
+
+		if (!Files.exists(file)) {
+			System.out.printf("No scores in %s yet\n", file);
+			return;
+		}
+
+		long start = System.nanoTime();
+		HighScores scores = new HighScores(file, false);
+		double time = (System.nanoTime() - start) / 1000000.0;
+
+		System.out.printf("%d scores in %s, read in %.1fms\n", scores.numScores(), file, time);
+
+		for (int player = 0; player <= MAX_PLAYER; ++player) {
+			for (int level = 0; level <= MAX_START_LEVEL; ++level) {
+				ArrayList<Score> list = scores.topScores(player, level);
+				if (list.isEmpty()) {
+					continue;
+				}
+
+				System.out.printf("\nplayer %d, starting on level %d:\n", player + 1, level);
+				for (Score score : list) {
+					System.out.printf("  %7d  %4d lines  level %2d  %tF %<tR\n", score.score, score.lines, score.level, score.time);
+				}
+			}
+		}
+
+		scores.close();
+	}
+}
@@ -0,0 +1,78 @@
+
+// Counts how many times each latency happened, without keeping every value.
+// The buckets go up in powers of two, with each one split into 8, so a value
+// is always within about 12% of its bucket, from 1ns up to hours.
+// record() is just a few shifts and an increment, so it can go anywhere.
+//
+// It isn't thread safe, each histogram should only be recorded to from one thread
+// (everything in the window happens on the Swing thread anyway)
+
+
+class LatencyHistogram {
+
+	static final int SUB_BUCKET_BITS = 3;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	final String name;
+
+	final long counts[] = new long[64 * SUB_BUCKETS];
+	long count = 0;
+	long total = 0;
+	long max = 0;
+
+	LatencyHistogram(String name) {
+		this.name = name;
+	}
+
+	void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+
+		++counts[bucket(nanos)];
+		++count;
+		total += nanos;
+		max = Math.max(max, nanos);
+	}
+
+	//the top bit of the value picks the power of two, and the next 3 bits pick which part of it
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int power = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (power - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (power - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	//the smallest value which goes in a bucket
+	static long bucketStart(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+
+		int power = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		return (SUB_BUCKETS + sub) << (power - SUB_BUCKET_BITS);
+	}
+
+	//roughly the value which 'fraction' of the recorded values are below (e.g. 0.99 for the 99th percentile)
+	long percentile(double fraction) {
+		long target = (long) Math.ceil(fraction * count);
+		long seen = 0;
+
+		for (int bucket = 0; bucket < counts.length; ++bucket) {
+			seen += counts[bucket];
+			if (seen >= target && seen != 0) {
+				return Math.min(bucketStart(bucket + 1) - 1, max);
+			}
+		}
+
+		return max;
+	}
+
+	double mean() {
+		return count == 0 ? 0.0 : (double) total / count;
+	}
+}
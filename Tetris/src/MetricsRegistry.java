@@ -0,0 +1,67 @@
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+// Keeps the latency histograms for a session, and writes them out to a file.
+// Run with -Dtetris.metrics=<file> to record them while playing, the file is written when the game exits.
+//
+// The file has a summary line for each histogram (in microseconds), followed by
+// every bucket that has something in it, so it's easy to graph
+
+
+class MetricsRegistry {
+
+	private final Map<String, LatencyHistogram> histograms = new LinkedHashMap<String, LatencyHistogram>();
+
+	//gets a histogram, making it the first time
+	synchronized LatencyHistogram histogram(String name) {
+		LatencyHistogram histogram = histograms.get(name);
+		if (histogram == null) {
+			histogram = new LatencyHistogram(name);
+			histograms.put(name, histogram);
+		}
+		return histogram;
+	}
+
+	synchronized void export(Path file) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+			out.printf("# name, count, mean, 50%%, 90%%, 99%%, 99.9%%, max (microseconds)\n");
+
+			for (LatencyHistogram h : histograms.values()) {
+				out.printf("%s, %d, %.1f, %.1f, %.1f, %.1f, %.1f, %.1f\n", h.name, h.count, h.mean() / 1000.0,
+						h.percentile(0.5) / 1000.0, h.percentile(0.9) / 1000.0, h.percentile(0.99) / 1000.0,
+						h.percentile(0.999) / 1000.0, h.max / 1000.0);
+			}
+
+			out.printf("\n# name, bucket start (microseconds), count\n");
+
+			for (LatencyHistogram h : histograms.values()) {
+				for (int bucket = 0; bucket < h.counts.length; ++bucket) {
+					if (h.counts[bucket] != 0) {
+						out.printf("%s, %.3f, %d\n", h.name, LatencyHistogram.bucketStart(bucket) / 1000.0, h.counts[bucket]);
+					}
+				}
+			}
+		}
+	}
+
+	//writes the file when the program exits (e.g. when the window is closed)
+	void exportOnExit(final Path file) {
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				try {
+					export(file);
+				} catch (IOException ex) {
+					System.out.printf("Couldn't save the metrics to %s: %s\n", file, ex.getMessage());
+				}
+			}
+		}));
+	}
+}
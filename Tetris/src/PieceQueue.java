@@ -0,0 +1,111 @@
+import java.nio.ByteBuffer;
+
+
+// The pieces a player has coming, worked out ahead of time.
+// Each player has their own, with their own RNG split off the game's seed (see SplitRandom),
+// so the same seed always gives each player the same pieces, whatever the other players do.
+//
+// Pieces are made BATCH at a time into a ring of SIZE, whenever fewer than PREVIEW are left,
+// so there's always at least PREVIEW to show as the preview, and the randomizer is only
+// called every BATCH pieces instead of on every spawn. Making them early doesn't change
+// which pieces come out, as the RNG is only used for this queue.
+//
+// Everything here is plain fields and arrays made up front, so it's copied into
+// snapshots as ints and into keyframes by save() and load().
+
+
+class PieceQueue {
+
+	static final int SIZE = 16;					//a power of 2
+	static final int BATCH = 8;
+	static final int PREVIEW = SIZE - BATCH;	//how far ahead can be seen
+
+	//how many ints it takes in a GameSnapshot
+	static final int INTS = 7 + SIZE;
+
+	final SplitRandom rng = new SplitRandom();
+	Randomizer randomizer = Randomizer.NES;
+	int state;									//the randomizer's (see Randomizer)
+
+	final int pieces[] = new int[SIZE];
+	int head;									//the index of the next piece
+	int count;									//how many are in the ring
+
+	//sets it up for a new game, with the next generator split off 'parent'
+	void start(SplitRandom parent, Randomizer randomizer) {
+		rng.splitFrom(parent);
+		this.randomizer = randomizer;
+		state = randomizer.start();
+		head = 0;
+		count = 0;
+
+		fill();
+	}
+
+	//the next piece, taking it off the queue
+	int take() {
+		int piece = pieces[head];
+		head = (head + 1) & (SIZE - 1);
+		--count;
+
+		if (count < PREVIEW) {
+			fill();
+		}
+		return piece;
+	}
+
+	//the piece 'i' after the next one (0 is the next one), up to PREVIEW - 1
+	int peek(int i) {
+		return pieces[(head + i) & (SIZE - 1)];
+	}
+
+	private void fill() {
+		for (int i = 0; i < BATCH; ++i) {
+			pieces[(head + count) & (SIZE - 1)] = randomizer.next(this);
+			++count;
+		}
+	}
+
+	void save(ByteBuffer out) {
+		out.putLong(rng.seed);
+		out.putLong(rng.gamma);
+		out.putInt(state);
+		out.put((byte) count);
+		for (int i = 0; i < count; ++i) {
+			out.put((byte) peek(i));
+		}
+	}
+
+	//the randomizer isn't saved, it's the same for every player so the engine sets it
+	void load(ByteBuffer in) {
+		rng.seed = in.getLong();
+		rng.gamma = in.getLong();
+		state = in.getInt();
+		head = 0;
+		count = in.get();
+		for (int i = 0; i < count; ++i) {
+			pieces[i] = in.get();
+		}
+	}
+
+	//the same for a snapshot, at 'pos' in its ints
+	void save(int ints[], int pos) {
+		ints[pos] = (int) (rng.seed >>> 32);
+		ints[pos + 1] = (int) rng.seed;
+		ints[pos + 2] = (int) (rng.gamma >>> 32);
+		ints[pos + 3] = (int) rng.gamma;
+		ints[pos + 4] = state;
+		ints[pos + 5] = head;
+		ints[pos + 6] = count;
+		System.arraycopy(pieces, 0, ints, pos + 7, SIZE);
+	}
+
+	void load(int ints[], int pos) {
+		rng.seed = (long) ints[pos] << 32 | (ints[pos + 1] & 0xFFFFFFFFL);
+		rng.gamma = (long) ints[pos + 2] << 32 | (ints[pos + 3] & 0xFFFFFFFFL);
+		state = ints[pos + 4];
+		head = ints[pos + 5];
+		count = ints[pos + 6];
+		System.arraycopy(ints, pos + 7, pieces, 0, SIZE);
+	}
+}
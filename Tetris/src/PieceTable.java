@@ -0,0 +1,77 @@
+
+import java.util.Arrays;
+
+
+// Lookup tables for every shape in every rotation, worked out once when the class loads.
+// getRotatedIndex used to be called for all 16 cells of the 4x4 grid every time a piece was
+// checked, locked or drawn. Every tetromino has exactly 4 filled cells, so now the hot paths
+// just loop over those 4 cells (or AND the row masks) and never have to rotate anything.
+//
+// Everything is indexed by 'piece', which is shape * 4 + (rotation & 3)
+// (AND 3 instead of MOD 4 so negative rotations still work)
+
+
+class PieceTable {
+
+	static final int NUM_PIECES = 7 * 4;
+
+	//X and Y offsets of the 4 filled cells, indexed by [piece * 4 + cell]
+	static final int cellX[] = new int[NUM_PIECES * 4];
+	static final int cellY[] = new int[NUM_PIECES * 4];
+
+	//bounding box of the filled cells within the 4x4 grid (inclusive)
+	static final int minX[] = new int[NUM_PIECES];
+	static final int maxX[] = new int[NUM_PIECES];
+	static final int minY[] = new int[NUM_PIECES];
+	static final int maxY[] = new int[NUM_PIECES];
+
+	//bit X of rowMasks[piece][Y] is set if the piece fills column X of row Y
+	static final int rowMasks[][] = new int[NUM_PIECES][4];
+
+	//the same moved right so the piece's leftmost column is bit 0, for the BitBoard
+	//(so putting a piece anywhere on the board is always a shift left, and never a rotate)
+	static final long rowBits[][] = new long[NUM_PIECES][4];
+
+	//the Y of the lowest filled cell in each column of the 4x4 grid, indexed by [piece * 4 + x]
+	//(-1 for an empty column), this is the bottom edge that hits the stack when it's dropped
+	static final int bottomY[] = new int[NUM_PIECES * 4];
+
+	static {
+		for (int shape = 0; shape < 7; ++shape) {
+			for (int rotation = 0; rotation < 4; ++rotation) {
+				int piece = shape * 4 + rotation;
+				int cell = 0;
+
+				minX[piece] = 3;
+				minY[piece] = 3;
+				Arrays.fill(bottomY, piece * 4, piece * 4 + 4, -1);
+
+				for (int y = 0; y < 4; ++y) {
+					for (int x = 0; x < 4; ++x) {
+						if (((TetrisEngine.tetrominos[shape] >> TetrisEngine.getRotatedIndex(x, y, rotation, shape)) & 1) == 1) {
+							cellX[piece * 4 + cell] = x;
+							cellY[piece * 4 + cell] = y;
+							++cell;
+
+							rowMasks[piece][y] |= 1 << x;
+
+							minX[piece] = Math.min(minX[piece], x);
+							maxX[piece] = Math.max(maxX[piece], x);
+							minY[piece] = Math.min(minY[piece], y);
+							maxY[piece] = Math.max(maxY[piece], y);
+							bottomY[piece * 4 + x] = Math.max(bottomY[piece * 4 + x], y);
+						}
+					}
+				}
+
+				for (int y = 0; y < 4; ++y) {
+					rowBits[piece][y] = rowMasks[piece][y] >>> minX[piece];
+				}
+			}
+		}
+	}
+
+	static int pieceIndex(int shape, int rotation) {
+		return shape * 4 + (rotation & 3);
+	}
+}
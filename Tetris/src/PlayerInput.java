@@ -0,0 +1,123 @@
+
+// Which keys a player is holding, turned into inputs once per frame.
+// The pieces used to move on the KeyEvents themselves, so holding left moved at whatever
+// speed the OS key repeat was set to (and the first repeat came after the OS's delay).
+// Now the key events just say when a key goes down or up, and update() is called at the
+// start of every frame (by GameLoop), so holding a key works the same on every machine:
+//
+//  - a move happens on the first frame after the key goes down (even if it's already been let go)
+//  - after 'das' frames held (delayed auto shift), it moves again every 'arr' frames (auto repeat rate)
+//  - an 'arr' of 0 moves all the way to the wall as soon as the delay is up
+//  - if left and right are both held, the last one pressed wins
+//  - soft drop repeats every SOFT_DROP_FRAMES while held, and rotations and hard drop only happen once per press
+//
+// Run with -Dtetris.das=<frames> and -Dtetris.arr=<frames> to change them (the NES is 16 and 6)
+
+
+class PlayerInput {
+
+	static final int DEFAULT_DAS = 16;
+	static final int DEFAULT_ARR = 6;
+
+	//the NES soft drop moves down every other frame
+	static final int SOFT_DROP_FRAMES = 2;
+
+	private final TetrisEngine engine;
+	private final int player;
+
+	int das = Integer.getInteger("tetris.das", DEFAULT_DAS);
+	int arr = Integer.getInteger("tetris.arr", DEFAULT_ARR);
+
+	//indexed by the TetrisEngine.INPUT_XXX constants (except INPUT_RELEASE_DROP)
+	private final boolean held[] = new boolean[TetrisEngine.INPUT_RELEASE_DROP];
+	private final int presses[] = new int[TetrisEngine.INPUT_RELEASE_DROP];		//presses since the last frame
+	private boolean dropReleased = false;					//soft or hard drop was let go since the last frame
+
+	private int shiftInput = -1;			//INPUT_LEFT or INPUT_RIGHT, whichever is being auto shifted
+	private int shiftFrames = 0;			//frames it's been held for
+	private int softDropFrames = 0;
+
+	PlayerInput(TetrisEngine engine, int player) {
+		this.engine = engine;
+		this.player = player;
+	}
+
+	//a key went down (the OS repeating it while it's held doesn't do anything)
+	void press(int input) {
+		if (held[input]) {
+			return;
+		}
+
+		held[input] = true;
+		++presses[input];
+
+		if (input == TetrisEngine.INPUT_LEFT || input == TetrisEngine.INPUT_RIGHT) {
+			shiftInput = input;
+			shiftFrames = 0;
+
+		} else if (input == TetrisEngine.INPUT_SOFT_DROP) {
+			softDropFrames = 0;
+		}
+	}
+
+	void release(int input) {
+		held[input] = false;
+
+		if (input == TetrisEngine.INPUT_SOFT_DROP || input == TetrisEngine.INPUT_HARD_DROP) {
+			dropReleased = true;
+		}
+
+		//go back to the other direction if it's still held
+		if (input == shiftInput) {
+			int other = input == TetrisEngine.INPUT_LEFT ? TetrisEngine.INPUT_RIGHT : TetrisEngine.INPUT_LEFT;
+			shiftInput = held[other] ? other : -1;
+			shiftFrames = 0;
+		}
+	}
+
+	//lets go of everything (e.g. the window lost focus, so the key ups won't arrive)
+	void releaseAll() {
+		for (int input = 0; input < held.length; ++input) {
+			held[input] = false;
+			presses[input] = 0;
+		}
+		shiftInput = -1;
+		dropReleased = false;
+	}
+
+	//sends this frame's inputs to the engine, called once per frame before TetrisEngine.tick()
+	void update() {
+		//everything pressed since the last frame happens once, even quick taps
+		for (int input = 0; input < presses.length; ++input) {
+			for (; presses[input] > 0; --presses[input]) {
+				engine.step(player, input);
+			}
+		}
+
+		//auto shift, counting from the frame the first move happened (which is frame 1)
+		if (shiftInput != -1 && held[shiftInput]) {
+			++shiftFrames;
+
+			if (shiftFrames > das) {
+				if (arr == 0) {
+					//straight to the wall (this stops as soon as it can't move, or the piece locks)
+					while ((engine.step(player, shiftInput) & TetrisEngine.EVENT_MOVED) != 0) {
+					}
+				} else if ((shiftFrames - das - 1) % arr == 0) {
+					engine.step(player, shiftInput);
+				}
+			}
+		}
+
+		//soft drop counts the same way, with the press being the first drop
+		if (held[TetrisEngine.INPUT_SOFT_DROP] && ++softDropFrames > 1 && (softDropFrames - 1) % SOFT_DROP_FRAMES == 0) {
+			engine.step(player, TetrisEngine.INPUT_SOFT_DROP);
+		}
+
+		//let go after any drops this frame, so the bonus for them still counts
+		if (dropReleased) {
+			dropReleased = false;
+			engine.step(player, TetrisEngine.INPUT_RELEASE_DROP);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+
+// Picks the pieces that go into a PieceQueue.
+// NES is the original's: pick one of 7 with a reroll, which makes the same piece twice in a row less likely.
+// BAG is the modern one: all 7 pieces shuffled, then the next 7, so there's never a long wait for an I.
+//
+// Anything a randomizer needs to remember between pieces goes in the queue's 'state'
+// (so it's saved and loaded with the rest of the game), and 'next' is only called
+// when the queue fills up a batch, so it doesn't need to be fast.
+
+
+interface Randomizer {
+
+	//what 'state' is at the start of a game
+	int start();
+
+	//picks the next piece (0-6) using the queue's RNG and state
+	int next(PieceQueue queue);
+
+	Randomizer NES = new Randomizer() {
+		//the state is the last piece picked, or -1 before the first one
+		public int start() {
+			return -1;
+		}
+
+		//rip off the NES version of Tetris by copying its RNG system
+		//https://www.reddit.com/r/Tetris/comments/6o6tvv/what_is_the_block_algorithm_for_classic_tetris/
+		public int next(PieceQueue queue) {
+			int piece;
+			if (queue.state == -1) {
+				piece = queue.rng.nextInt(7);				//7 tetrominoes to choose from
+
+			} else {
+				piece = queue.rng.nextInt(8);				//7 tetrominos plus the 'reroll'
+
+				if (piece == queue.state || piece == 7) {	//if it's the same, or the reroll...
+					piece = queue.rng.nextInt(7);			//draw again. This reduces the odds of getting two in a row.
+
+					//Same piece 3.5%
+					//All others 16%
+				}
+			}
+
+			queue.state = piece;
+			return piece;
+		}
+	};
+
+	Randomizer BAG = new Randomizer() {
+		//the state is a bit for each piece still in the bag
+		public int start() {
+			return 0;
+		}
+
+		public int next(PieceQueue queue) {
+			if (queue.state == 0) {
+				queue.state = (1 << 7) - 1;
+			}
+
+			//the n'th piece still in the bag
+			int bits = queue.state;
+			for (int n = queue.rng.nextInt(Integer.bitCount(bits)); n > 0; --n) {
+				bits &= bits - 1;
+			}
+
+			int piece = Integer.numberOfTrailingZeros(bits);
+			queue.state &= ~(1 << piece);
+			return piece;
+		}
+	};
+
+	//in the order of their ids (the number saved in replays and snapshots)
+	Randomizer ALL[] = {NES, BAG};
+	String NAMES[] = {"nes", "bag"};
+
+	static int id(Randomizer randomizer) {
+		for (int i = 0; i < ALL.length; ++i) {
+			if (ALL[i] == randomizer) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("unknown randomizer");
+	}
+
+	//for -Dtetris.randomizer, or null if there isn't one with that name
+	static Randomizer named(String name) {
+		for (int i = 0; i < NAMES.length; ++i) {
+			if (NAMES[i].equals(name)) {
+				return ALL[i];
+			}
+		}
+		return null;
+	}
+}
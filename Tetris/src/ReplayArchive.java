@@ -0,0 +1,597 @@
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveTask;
+
+
+// Lots of replays in one file, with a summary of each game that can be searched without playing them.
+// A replay on its own is just the inputs, so asking anything about a game means playing it,
+// which is far too slow with millions of games. Here every game gets a fixed size summary
+// (score, lines, levels, tetrises, how high the stack was at the end...) when it's added,
+// and the summaries are all together at the front of each segment, so a query only reads those.
+//
+// The file is a list of segments, each one:
+//	 header:   'T' 'R' 'A' '1', the number of games it has room for, the number of games in it,
+//			   and the length of the segment (all little endian)
+//	 index:    SEGMENT_GAMES summaries, ENTRY_SIZE bytes each (the unused ones are zeros)
+//	 replays:  the replays, as ReplayRecorder makes them, one after the other
+//
+// Only the last segment is ever added to. Once it's full, a new one starts after it,
+// so nothing that's been written ever moves or changes, except the counts going up.
+// The replay and then its summary are forced to the disk before the counts go up (and the counts
+// after), so a crash part way through adding a game just loses that game.
+//
+// Working out a summary means playing the whole game, so the game adds its replays with addLater(),
+// which hands them to a background thread (like HighScores) instead of stopping the game while it plays them.
+//
+// Reading goes through memory mapped buffers, so the OS pages it in as needed and it doesn't
+// matter how big the file gets. scan() runs a query over every summary in parallel on the
+// ForkJoin common pool, and replay() gives a ReplayPlayer for when a query needs more than the summary.
+//
+// Run 'java ReplayArchive add <archive> <replay files...>' to add replays,
+// 'java ReplayArchive generate <archive> <games>' to fill one with games the bot played,
+// or 'java ReplayArchive stats <archive>' to run the example queries
+
+
+class ReplayArchive {
+
+	static final byte MAGIC[] = {'T', 'R', 'A', '1'};
+	static final int HEADER_SIZE = 32;
+	static final int SEGMENT_GAMES = 4096;
+
+	//the header
+	static final int HEADER_CAPACITY = 4;		//int
+	static final int HEADER_COUNT = 8;			//int
+	static final int HEADER_LENGTH = 16;		//long, the whole segment including the header
+
+	//each summary (only player 1 is summarised, as nearly every game is one player)
+	static final int ENTRY_SIZE = 48;
+	static final int ENTRY_OFFSET = 0;			//long, where the replay is in the file
+	static final int ENTRY_LENGTH = 8;			//int
+	static final int ENTRY_SEED = 12;			//long
+	static final int ENTRY_PLAYERS = 20;		//byte
+	static final int ENTRY_START_LEVEL = 21;	//byte
+	static final int ENTRY_LEVEL = 22;			//short, the level at the end
+	static final int ENTRY_SCORE = 24;			//int
+	static final int ENTRY_LINES = 28;			//int
+	static final int ENTRY_TETRISES = 32;		//int
+	static final int ENTRY_FRAMES = 36;			//int
+	static final int ENTRY_PIECES = 40;			//int
+	static final int ENTRY_HEIGHT = 44;			//byte, how high the stack was at the end
+	static final int ENTRY_LOST = 45;			//byte, 1 if it ended by topping out
+
+	static final int INDEX_SIZE = HEADER_SIZE + SEGMENT_GAMES * ENTRY_SIZE;
+
+	//how many games each thread gets at a time in scan()
+	static final int SCAN_GAMES = 1024;
+
+	private final FileChannel channel;
+	private final boolean writable;
+
+	//one of each per segment. These are replaced with bigger copies when a segment's added, never changed,
+	//so a scan can read them while the background thread adds games (indexes is set last, see addSegment)
+	private volatile long segmentStarts[] = new long[0];
+	private volatile MappedByteBuffer indexes[] = new MappedByteBuffer[0];
+
+	//null until it's needed, and only used with the lock held
+	private MappedByteBuffer replays[] = new MappedByteBuffer[0];
+
+	private int numGames = 0;
+
+	//the replays waiting to be added by the background thread, which starts the first time one is added
+	private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>();
+	private final byte closeMarker[] = new byte[0];		//put in the queue to stop the writer
+	private Thread writer = null;
+
+	//opens an archive, making it if it doesn't exist when 'writable' is set
+	ReplayArchive(Path file, boolean writable) throws IOException {
+		this.writable = writable;
+
+		if (writable) {
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		} else {
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+		}
+
+		//find the segments
+		long start = 0;
+		long size = channel.size();
+
+		while (start < size) {
+			MappedByteBuffer index = mapIndex(start);
+
+			for (int i = 0; i < MAGIC.length; ++i) {
+				if (index.get(i) != MAGIC[i]) {
+					throw new IOException("not a replay archive");
+				}
+			}
+
+			addSegment(start, index);
+			numGames += index.getInt(HEADER_COUNT);
+
+			start += index.getLong(HEADER_LENGTH);
+		}
+	}
+
+	//the index goes in after the start, so anything that can see a segment's index can see where it starts too
+	private synchronized void addSegment(long start, MappedByteBuffer index) {
+		int segments = indexes.length;
+
+		long starts[] = Arrays.copyOf(segmentStarts, segments + 1);
+		starts[segments] = start;
+		segmentStarts = starts;
+
+		replays = Arrays.copyOf(replays, segments + 1);
+
+		MappedByteBuffer newIndexes[] = Arrays.copyOf(indexes, segments + 1);
+		newIndexes[segments] = index;
+		indexes = newIndexes;
+	}
+
+	private MappedByteBuffer mapIndex(long start) throws IOException {
+		MappedByteBuffer index = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, start, INDEX_SIZE);
+		index.order(ByteOrder.LITTLE_ENDIAN);
+		return index;
+	}
+
+	synchronized int numGames() {
+		return numGames;
+	}
+
+	//adds anything that's still waiting, and closes the file
+	void close() throws IOException {
+		Thread writer;
+		synchronized (this) {
+			writer = this.writer;
+		}
+
+		if (writer != null) {
+			try {
+				queue.put(closeMarker);
+				writer.join();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		channel.close();
+	}
+
+	//closes it when the program exits (e.g. when the window is closed), so a game that's waiting isn't lost
+	void closeOnExit() {
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				try {
+					close();
+				} catch (IOException ex) {
+					System.out.printf("Couldn't close the replay archive: %s\n", ex.getMessage());
+				}
+			}
+		}));
+	}
+
+	//adds a replay on the background thread, this doesn't wait for it to be played or written
+	void addLater(byte replay[]) {
+		synchronized (this) {
+			if (writer == null) {
+				writer = new Thread(new Runnable() {
+					public void run() {
+						appendReplays();
+					}
+				}, "replay archive writer");
+				writer.setDaemon(true);
+				writer.start();
+			}
+		}
+		queue.add(replay);
+	}
+
+	//the background thread
+	private void appendReplays() {
+		while (true) {
+			byte replay[];
+			try {
+				replay = queue.take();
+			} catch (InterruptedException ex) {
+				return;
+			}
+			if (replay == closeMarker) {
+				return;
+			}
+
+			try {
+				append(replay);
+			} catch (IOException ex) {
+				System.out.printf("Couldn't add the replay to the archive: %s\n", ex.getMessage());
+			}
+		}
+	}
+
+	//adds a replay to the end, working out its summary by playing it
+	void append(byte replay[]) throws IOException {
+		ReplayPlayer player = new ReplayPlayer(replay);
+		TetrisEngine engine = player.engine;
+
+		//one frame at a time, as a tetris is 4 lines going at once
+		//(pieces only lock in tick(), so there's at most one clear per frame)
+		int tetrises = 0;
+		int lines = 0;
+		while (!player.isFinished()) {
+			player.playTo(engine.frame + 1);
+
+			if (engine.players[0].linesCleared - lines == 4) {
+				++tetrises;
+			}
+			lines = engine.players[0].linesCleared;
+		}
+
+		//the rest is under the same lock as replays() and numGames(), so a scan never sees a game half added
+		synchronized (this) {
+			write(replay, engine, tetrises);
+		}
+	}
+
+	private void write(byte replay[], TetrisEngine engine, int tetrises) throws IOException {
+		//start a new segment if the last one is full (or there isn't one)
+		int segment = indexes.length - 1;
+		if (segment == -1 || indexes[segment].getInt(HEADER_COUNT) == SEGMENT_GAMES) {
+			long start = segment == -1 ? 0 : segmentStarts[segment] + indexes[segment].getLong(HEADER_LENGTH);
+
+			MappedByteBuffer index = mapIndex(start);
+			for (int i = 0; i < MAGIC.length; ++i) {
+				index.put(i, MAGIC[i]);
+			}
+			index.putInt(HEADER_CAPACITY, SEGMENT_GAMES);
+			index.putInt(HEADER_COUNT, 0);
+			index.putLong(HEADER_LENGTH, INDEX_SIZE);
+
+			addSegment(start, index);
+			++segment;
+		}
+
+		MappedByteBuffer index = indexes[segment];
+		long segmentLength = index.getLong(HEADER_LENGTH);
+		long offset = segmentStarts[segment] + segmentLength;
+
+		//the replay first, then its summary, then the counts, each on the disk before the next
+		ByteBuffer data = ByteBuffer.wrap(replay);
+		while (data.hasRemaining()) {
+			channel.write(data, offset + data.position());
+		}
+		channel.force(false);
+
+		TetrisEngine.PlayerState p = engine.players[0];
+		int count = index.getInt(HEADER_COUNT);
+		int entry = HEADER_SIZE + count * ENTRY_SIZE;
+
+		index.putLong(entry + ENTRY_OFFSET, offset);
+		index.putInt(entry + ENTRY_LENGTH, replay.length);
+		index.putLong(entry + ENTRY_SEED, engine.seed);
+		index.put(entry + ENTRY_PLAYERS, (byte) engine.numPlayers);
+		index.put(entry + ENTRY_START_LEVEL, (byte) p.levelOnRestart);
+		index.putShort(entry + ENTRY_LEVEL, (short) p.level);
+		index.putInt(entry + ENTRY_SCORE, p.score);
+		index.putInt(entry + ENTRY_LINES, p.linesCleared);
+		index.putInt(entry + ENTRY_TETRISES, tetrises);
+		index.putInt(entry + ENTRY_FRAMES, (int) engine.frame);
+		index.putInt(entry + ENTRY_PIECES, p.pieces);
+		index.put(entry + ENTRY_HEIGHT, (byte) stackHeight(engine.boards[0]));
+		index.put(entry + ENTRY_LOST, (byte) (p.lost ? 1 : 0));
+		index.force();
+
+		index.putLong(HEADER_LENGTH, segmentLength + replay.length);
+		index.putInt(HEADER_COUNT, count + 1);
+		index.force();
+		++numGames;
+
+		//the replays are mapped again next time they're read, to pick this one up
+		replays[segment] = null;
+	}
+
+	//how many rows the highest column reaches
+	static int stackHeight(BitBoard board) {
+		int top = board.height - 1;
+		for (int x = 1; x < board.width - 1; ++x) {
+			top = Math.min(top, board.emptyBelow(x, 0));
+		}
+		return board.height - 1 - top;
+	}
+
+	//the summaries
+	//(absolute reads don't touch the buffer's position, so these are fine from any number of threads)
+
+	private MappedByteBuffer index(int game) {
+		return indexes[game / SEGMENT_GAMES];
+	}
+
+	private static int entry(int game) {
+		return HEADER_SIZE + (game % SEGMENT_GAMES) * ENTRY_SIZE;
+	}
+
+	long seed(int game)			{ return index(game).getLong(entry(game) + ENTRY_SEED); }
+	int numPlayers(int game)	{ return index(game).get(entry(game) + ENTRY_PLAYERS) & 0xFF; }
+	int startLevel(int game)	{ return index(game).get(entry(game) + ENTRY_START_LEVEL) & 0xFF; }
+	int level(int game)			{ return index(game).getShort(entry(game) + ENTRY_LEVEL); }
+	int score(int game)			{ return index(game).getInt(entry(game) + ENTRY_SCORE); }
+	int lines(int game)			{ return index(game).getInt(entry(game) + ENTRY_LINES); }
+	int tetrises(int game)		{ return index(game).getInt(entry(game) + ENTRY_TETRISES); }
+	int frames(int game)		{ return index(game).getInt(entry(game) + ENTRY_FRAMES); }
+	int pieces(int game)		{ return index(game).getInt(entry(game) + ENTRY_PIECES); }
+	int height(int game)		{ return index(game).get(entry(game) + ENTRY_HEIGHT) & 0xFF; }
+	boolean lost(int game)		{ return index(game).get(entry(game) + ENTRY_LOST) != 0; }
+
+	//a copy of a game's replay, for playing it again
+	byte[] replayData(int game) throws IOException {
+		int segment = game / SEGMENT_GAMES;
+		MappedByteBuffer index = indexes[segment];
+		long offset = index.getLong(entry(game) + ENTRY_OFFSET);
+		int length = index.getInt(entry(game) + ENTRY_LENGTH);
+
+		byte data[] = new byte[length];
+		replays(segment).get((int) (offset - segmentStarts[segment] - INDEX_SIZE), data, 0, length);
+		return data;
+	}
+
+	ReplayPlayer replay(int game) throws IOException {
+		return new ReplayPlayer(replayData(game));
+	}
+
+	//the replays part of a segment, mapped the first time it's needed
+	private synchronized MappedByteBuffer replays(int segment) throws IOException {
+		MappedByteBuffer data = replays[segment];
+		if (data == null) {
+			long start = segmentStarts[segment];
+			data = channel.map(FileChannel.MapMode.READ_ONLY, start + INDEX_SIZE, indexes[segment].getLong(HEADER_LENGTH) - INDEX_SIZE);
+			replays[segment] = data;
+		}
+		return data;
+	}
+
+	//something worked out over every game
+	//scan() gives each thread its own empty one from create(), and merges them all at the end
+	abstract static class Query {
+		abstract Query create();
+		abstract void add(ReplayArchive archive, int game) throws IOException;
+		abstract void merge(Query other);
+	}
+
+	//runs a query over every game in parallel, the results are merged into 'query'
+	void scan(Query query) {
+		query.merge(ForkJoinPool.commonPool().invoke(new Scan(query, 0, numGames())));
+	}
+
+	private class Scan extends RecursiveTask<Query> {
+		private static final long serialVersionUID = 1L;
+
+		private final Query prototype;
+		private final int start;
+		private final int end;
+
+		Scan(Query prototype, int start, int end) {
+			this.prototype = prototype;
+			this.start = start;
+			this.end = end;
+		}
+
+		protected Query compute() {
+			if (end - start <= SCAN_GAMES) {
+				Query result = prototype.create();
+				try {
+					for (int game = start; game < end; ++game) {
+						result.add(ReplayArchive.this, game);
+					}
+				} catch (IOException ex) {
+					throw new RuntimeException(ex);
+				}
+				return result;
+			}
+
+			int middle = (start + end) / 2;
+			Scan left = new Scan(prototype, start, middle);
+			left.fork();
+
+			Query result = new Scan(prototype, middle, end).compute();
+			result.merge(left.join());
+			return result;
+		}
+	}
+
+	///
+	/// EXAMPLE QUERIES
+	///
+
+	static final int MAX_LEVEL = 30;
+
+	//how many lines were cleared by tetrises, for each start level
+	static class TetrisRate extends Query {
+		final long lines[] = new long[MAX_LEVEL];
+		final long tetrisLines[] = new long[MAX_LEVEL];
+		final long games[] = new long[MAX_LEVEL];
+
+		Query create() {
+			return new TetrisRate();
+		}
+
+		void add(ReplayArchive archive, int game) {
+			int level = Math.min(archive.startLevel(game), MAX_LEVEL - 1);
+			lines[level] += archive.lines(game);
+			tetrisLines[level] += 4 * archive.tetrises(game);
+			++games[level];
+		}
+
+		void merge(Query other) {
+			TetrisRate o = (TetrisRate) other;
+			for (int i = 0; i < MAX_LEVEL; ++i) {
+				lines[i] += o.lines[i];
+				tetrisLines[i] += o.tetrisLines[i];
+				games[i] += o.games[i];
+			}
+		}
+	}
+
+	//how high the stack was when the game ended, for the games that topped out
+	static class HeightHistogram extends Query {
+		final long counts[] = new long[TetrisEngine.PLAYFIELD_HEIGHT];
+
+		Query create() {
+			return new HeightHistogram();
+		}
+
+		void add(ReplayArchive archive, int game) {
+			if (archive.lost(game)) {
+				++counts[archive.height(game)];
+			}
+		}
+
+		void merge(Query other) {
+			for (int i = 0; i < counts.length; ++i) {
+				counts[i] += ((HeightHistogram) other).counts[i];
+			}
+		}
+	}
+
+	//one that needs the replays: the average score one minute in, for games that lasted that long
+	static class ScoreAfter extends Query {
+		static final int FRAMES = 3606;			//a minute at the NES frame rate
+
+		long total = 0;
+		long games = 0;
+
+		Query create() {
+			return new ScoreAfter();
+		}
+
+		void add(ReplayArchive archive, int game) throws IOException {
+			//the summary says which ones are long enough, so only those get played
+			if (archive.frames(game) < FRAMES) {
+				return;
+			}
+
+			ReplayPlayer player = archive.replay(game);
+			player.seek(FRAMES);
+			total += player.engine.players[0].score;
+			++games;
+		}
+
+		void merge(Query other) {
+			total += ((ScoreAfter) other).total;
+			games += ((ScoreAfter) other).games;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("usage: java ReplayArchive add <archive> <replay files...>");
+			System.out.println("       java ReplayArchive generate <archive> <games>");
+			System.out.println("       java ReplayArchive stats <archive>");
+			return;
+		}
+
+		Path file = Paths.get(args[1]);
+
+		if (args[0].equals("add")) {
+			ReplayArchive archive = new ReplayArchive(file, true);
+			for (int i = 2; i < args.length; ++i) {
+				archive.append(Files.readAllBytes(Paths.get(args[i])));
+			}
+			System.out.printf("%d games in %s\n", archive.numGames(), file);
+			archive.close();
+
+		} else if (args[0].equals("generate")) {
+			generate(file, Integer.parseInt(args[2]));
+
+		} else if (args[0].equals("stats")) {
+			stats(file);
+		}
+	}
+
+	//has the bot play games at random start levels, with its weights changed a bit each game so some are better than others
+	//(it can go on forever, so each game is stopped after a random number of pieces if it hasn't topped out by then)
+	private static void generate(Path file, int games) throws IOException {
+		ReplayArchive archive = new ReplayArchive(file, true);
+		ReplayRecorder recorder = new ReplayRecorder(null);
+		Random rng = new Random(archive.numGames());
+
+		long start = System.nanoTime();
+
+		for (int game = 0; game < games; ++game) {
+			double weights[] = WeightedEvaluator.defaultWeights.clone();
+			for (int i = 0; i < weights.length; ++i) {
+				weights[i] += (rng.nextDouble() - 0.5) * 0.6;
+			}
+
+			TetrisEngine engine = new TetrisEngine();
+			engine.recorder = recorder;
+			engine.setStartLevel(rng.nextInt(20));
+			engine.startGame(rng.nextLong());
+
+			AutoPlayer autoPlayer = new AutoPlayer(engine, TetrisEngine.PLAYER_1, new WeightedEvaluator(weights));
+			int maxPieces = 20 + rng.nextInt(400);
+
+			while (!engine.isGameOver() && engine.players[TetrisEngine.PLAYER_1].pieces <= maxPieces) {
+				autoPlayer.update();
+				engine.tick();
+			}
+			recorder.end(engine.frame);
+
+			archive.append(recorder.toByteArray());
+		}
+
+		double seconds = (System.nanoTime() - start) / 1000000000.0;
+		System.out.printf("added %d games in %.2fs, %d games in %s (%d bytes)\n", games, seconds, archive.numGames(), file, Files.size(file));
+		archive.close();
+	}
+
+	private static void stats(Path file) throws IOException {
+		ReplayArchive archive = new ReplayArchive(file, false);
+		System.out.printf("%d games\n", archive.numGames());
+
+		long start = System.nanoTime();
+		TetrisRate rate = new TetrisRate();
+		archive.scan(rate);
+		double rateTime = (System.nanoTime() - start) / 1000000.0;
+
+		System.out.printf("\ntetris rate by start level (%.1fms):\n", rateTime);
+		for (int level = 0; level < MAX_LEVEL; ++level) {
+			if (rate.games[level] != 0) {
+				System.out.printf("  level %2d: %6d games, %8d lines, %5.1f%% from tetrises\n", level, rate.games[level],
+						rate.lines[level], 100.0 * rate.tetrisLines[level] / Math.max(1, rate.lines[level]));
+			}
+		}
+
+		start = System.nanoTime();
+		HeightHistogram heights = new HeightHistogram();
+		archive.scan(heights);
+		double heightTime = (System.nanoTime() - start) / 1000000.0;
+
+		System.out.printf("\nstack height at top out (%.1fms):\n", heightTime);
+		for (int height = 0; height < heights.counts.length; ++height) {
+			if (heights.counts[height] != 0) {
+				System.out.printf("  %2d rows: %d\n", height, heights.counts[height]);
+			}
+		}
+
+		start = System.nanoTime();
+		ScoreAfter after = new ScoreAfter();
+		archive.scan(after);
+		double afterTime = (System.nanoTime() - start) / 1000000.0;
+
+		System.out.printf("\naverage score after a minute, from replaying %d games (%.1fms): %.1f\n", after.games, afterTime,
+				(double) after.total / Math.max(1, after.games));
+
+		archive.close();
+	}
+}
@@ -0,0 +1,227 @@
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import java.util.Arrays;
+
+
+// Plays back a replay made by ReplayRecorder, without a window and as fast as it can go.
+// The keyframes are found when the replay is loaded, so seek() only has to
+// play forward from the nearest keyframe instead of from frame 0.
+//
+// Run with 'java ReplayPlayer <file> [frame]' to play a replay to the end (or to a frame)
+
+
+class ReplayPlayer {
+
+	final TetrisEngine engine;
+
+	private final byte data[];
+
+	//from the header
+	private final long seed;
+	private final Randomizer randomizer;
+	private final int numPlayers;
+	private final int startLevels[];
+	private final int headerSize;
+
+	//where the keyframes are
+	private int numKeyframes = 0;
+	private long keyframeFrames[] = new long[16];
+	private int keyframeOffsets[] = new int[16];		//the offset of the state, the length comes just before it
+	private int keyframeEnds[] = new int[16];			//the offset of the record after it
+
+	private int position;								//the next record to read
+	private long lastFrame;								//the frame of the last record read
+	private boolean finished;							//set after the TAG_END record
+
+	ReplayPlayer(byte data[]) {
+		this.data = data;
+
+		for (int i = 0; i < ReplayRecorder.MAGIC.length; ++i) {
+			if (data[i] != ReplayRecorder.MAGIC[i]) {
+				throw new IllegalArgumentException("not a Tetris replay");
+			}
+		}
+
+		seed = ByteBuffer.wrap(data, 4, 8).getLong();
+		randomizer = Randomizer.ALL[data[12]];
+		numPlayers = data[13] & 0xFF;
+
+		startLevels = new int[numPlayers];
+		for (int i = 0; i < numPlayers; ++i) {
+			startLevels[i] = data[14 + i] & 0xFF;			//(restarting on the level a game got to can go past 127)
+		}
+		headerSize = ReplayRecorder.HEADER_SIZE + numPlayers;
+
+		engine = new TetrisEngine(numPlayers);
+
+		findKeyframes();
+		restart();
+	}
+
+	//goes back to frame 0
+	void restart() {
+		engine.numPlayers = numPlayers;
+		engine.randomizer = randomizer;
+		for (int i = 0; i < numPlayers; ++i) {
+			engine.players[i].levelOnRestart = startLevels[i];
+		}
+		engine.startGame(seed);
+
+		position = headerSize;
+		lastFrame = 0;
+		finished = false;
+	}
+
+	//plays forward until the game reaches 'target' (or the replay ends)
+	void playTo(long target) {
+		while (!finished && position < data.length) {
+			int recordStart = position;
+			long recordFrame = lastFrame + readVarint();
+
+			//leave this record for next time
+			if (recordFrame > target) {
+				position = recordStart;
+				break;
+			}
+
+			while (engine.frame < recordFrame && engine.gameState == TetrisEngine.GAME_STATE_RUNNING) {
+				engine.tick();
+			}
+			lastFrame = recordFrame;
+
+			int tag = data[position++] & 0xFF;
+
+			if (tag == ReplayRecorder.TAG_KEYFRAME) {
+				//already in this state, as we played up to it
+				int length = (int) readVarint();
+				position += length;
+
+			} else if (tag == ReplayRecorder.TAG_END) {
+				finished = true;
+
+			} else if ((tag & 0xF0) == ReplayRecorder.TAG_MORE_PLAYERS) {
+				engine.step(ReplayRecorder.TAG_PLAYERS + (int) readVarint(), tag & 0xF);
+
+			} else {
+				engine.step(tag >> 4, tag & 0xF);
+			}
+		}
+
+		while (engine.frame < target && engine.gameState == TetrisEngine.GAME_STATE_RUNNING) {
+			engine.tick();
+		}
+	}
+
+	void playToEnd() {
+		playTo(Long.MAX_VALUE);
+	}
+
+	//true once every record has been played
+	boolean isFinished() {
+		return finished || position >= data.length;
+	}
+
+	//jumps to any frame, forwards or backwards
+	void seek(long target) {
+		//find the last keyframe at or before the target
+		int keyframe = -1;
+		for (int i = 0; i < numKeyframes && keyframeFrames[i] <= target; ++i) {
+			keyframe = i;
+		}
+
+		//if it's closer to carry on from where we are, do that instead
+		if (target >= engine.frame && (keyframe == -1 || keyframeFrames[keyframe] <= engine.frame)) {
+			playTo(target);
+			return;
+		}
+
+		if (keyframe == -1) {
+			restart();
+
+		} else {
+			engine.loadState(ByteBuffer.wrap(data, keyframeOffsets[keyframe], keyframeEnds[keyframe] - keyframeOffsets[keyframe]));
+			position = keyframeEnds[keyframe];
+			lastFrame = keyframeFrames[keyframe];
+			finished = false;
+		}
+
+		playTo(target);
+	}
+
+	private void findKeyframes() {
+		position = headerSize;
+		lastFrame = 0;
+
+		while (position < data.length) {
+			lastFrame += readVarint();
+			int tag = data[position++] & 0xFF;
+
+			if (tag == ReplayRecorder.TAG_KEYFRAME) {
+				int length = (int) readVarint();
+
+				if (numKeyframes == keyframeFrames.length) {
+					keyframeFrames = Arrays.copyOf(keyframeFrames, numKeyframes * 2);
+					keyframeOffsets = Arrays.copyOf(keyframeOffsets, numKeyframes * 2);
+					keyframeEnds = Arrays.copyOf(keyframeEnds, numKeyframes * 2);
+				}
+
+				keyframeFrames[numKeyframes] = lastFrame;
+				keyframeOffsets[numKeyframes] = position;
+				keyframeEnds[numKeyframes] = position + length;
+				++numKeyframes;
+
+				position += length;
+
+			} else if (tag == ReplayRecorder.TAG_END) {
+				break;
+
+			} else if ((tag & 0xF0) == ReplayRecorder.TAG_MORE_PLAYERS) {
+				readVarint();
+			}
+		}
+	}
+
+	private long readVarint() {
+		long value = 0;
+		int shift = 0;
+		int b;
+
+		do {
+			b = data[position++];
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+
+		return value;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.out.println("usage: java ReplayPlayer <file> [frame]");
+			return;
+		}
+
+		ReplayPlayer player = new ReplayPlayer(Files.readAllBytes(Paths.get(args[0])));
+
+		long start = System.nanoTime();
+		if (args.length > 1) {
+			player.seek(Long.parseLong(args[1]));
+		} else {
+			player.playToEnd();
+		}
+		long time = System.nanoTime() - start;
+
+		TetrisEngine engine = player.engine;
+		System.out.printf("frame %d (%d keyframes), played in %.2fms\n", engine.frame, player.numKeyframes, time / 1000000.0);
+
+		for (int i = 0; i < engine.numPlayers; ++i) {
+			System.out.printf("player %d: score %d, lines %d, level %d%s\n", i + 1, engine.players[i].score,
+					engine.players[i].linesCleared, engine.players[i].level, engine.players[i].lost ? " (lost)" : "");
+		}
+	}
+}
@@ -0,0 +1,203 @@
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.Arrays;
+
+
+// Records a game so it can be played back later by ReplayPlayer.
+// As the game is deterministic (seeded RNG, everything counted in frames),
+// only the inputs need to be stored.
+//
+// The format is:
+//	 header:  'T' 'R' 'P' '3', the seed (8 bytes), the randomizer (1 byte, see Randomizer.ALL), the number of players (1 byte),
+//			  and the starting level of each player (1 byte each)
+//	 records: the number of frames since the last record (as a varint, so usually 1 byte)
+//			  followed by a tag byte. The tag is (player << 4) | input for an input,
+//			  or TAG_MORE_PLAYERS | input followed by a varint of (player - 15) for players 16 and up,
+//			  TAG_KEYFRAME followed by a varint length and the game state from saveState,
+//			  or TAG_END when the game is over
+//
+// A keyframe is written every KEYFRAME_FRAMES frames so a long replay can be seeked
+// without playing it all from frame 0.
+
+
+class ReplayRecorder {
+
+	static final byte MAGIC[] = {'T', 'R', 'P', '3'};
+	static final int HEADER_SIZE = 4 + 8 + 1 + 1;		//plus a byte for each player
+
+	static final int TAG_KEYFRAME = 0xFF;
+	static final int TAG_END = 0xFE;
+	static final int TAG_MORE_PLAYERS = 0xF0;		//only the top 4 bits, the input is in the bottom 4
+
+	//the biggest number of players or starting level that fits in the header
+	static final int MAX_BYTE = 255;
+
+	//the most players that fit in the top 4 bits of a tag
+	static final int TAG_PLAYERS = 15;
+
+	//10 seconds or so between keyframes
+	static final int KEYFRAME_FRAMES = 600;
+
+	//more than enough room for TetrisEngine.saveState (on the standard board)
+	static final int MAX_STATE_SIZE_PER_PLAYER = 1024;
+
+	private final Path directory;				//where replays get saved, or null to just keep them in memory
+	private Path file = null;
+
+	ReplayArchive archive = null;				//where replays get added as well, if it's set
+
+	private byte buffer[] = new byte[4096];
+	private int length = 0;
+	private long lastFrame = 0;					//the frame of the last record, as each record only stores the difference
+	private boolean recording = false;
+
+	private ByteBuffer state = ByteBuffer.allocate(MAX_STATE_SIZE_PER_PLAYER * 2);
+
+	ReplayRecorder(Path directory) {
+		this.directory = directory;
+	}
+
+	//called by the engine when a game starts
+	void start(TetrisEngine engine) {
+		//save the last game if it got restarted before it was over
+		if (recording) {
+			end(lastFrame);
+		}
+
+		//the header doesn't have the size of the board, so custom boards aren't recorded
+		if (engine.width != TetrisEngine.PLAYFIELD_WIDTH || engine.height != TetrisEngine.PLAYFIELD_HEIGHT) {
+			return;
+		}
+
+		//and the number of players and their starting levels are a byte each, so neither are games that don't fit
+		if (engine.numPlayers > MAX_BYTE) {
+			return;
+		}
+		for (int i = 0; i < engine.numPlayers; ++i) {
+			if (engine.players[i].level > MAX_BYTE) {
+				return;
+			}
+		}
+
+		recording = true;
+		length = 0;
+		lastFrame = 0;
+
+		writeBytes(MAGIC, 0, MAGIC.length);
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			writeByte((int) (engine.seed >> shift));
+		}
+		writeByte(Randomizer.id(engine.randomizer));
+		writeByte(engine.numPlayers);
+		for (int i = 0; i < engine.numPlayers; ++i) {
+			writeByte(engine.players[i].level);
+		}
+
+		//make sure a keyframe fits (this is the only time it can allocate)
+		if (state.capacity() < MAX_STATE_SIZE_PER_PLAYER * (engine.numPlayers + 1)) {
+			state = ByteBuffer.allocate(MAX_STATE_SIZE_PER_PLAYER * (engine.numPlayers + 1));
+		}
+
+		if (directory != null) {
+			file = directory.resolve("tetris-" + Long.toHexString(engine.seed) + ".replay");
+		}
+	}
+
+	void recordInput(long frame, int player, int input) {
+		if (!recording) {
+			return;
+		}
+
+		writeVarint(frame - lastFrame);
+		lastFrame = frame;
+
+		if (player < TAG_PLAYERS) {
+			writeByte((player << 4) | input);
+		} else {
+			writeByte(TAG_MORE_PLAYERS | input);
+			writeVarint(player - TAG_PLAYERS);
+		}
+	}
+
+	//called by the engine after every frame
+	void frameDone(TetrisEngine engine) {
+		if (!recording || engine.frame % KEYFRAME_FRAMES != 0) {
+			return;
+		}
+
+		writeVarint(engine.frame - lastFrame);
+		lastFrame = engine.frame;
+		writeByte(TAG_KEYFRAME);
+
+		state.clear();
+		engine.saveState(state);
+
+		writeVarint(state.position());
+		writeBytes(state.array(), 0, state.position());
+	}
+
+	//called by the engine when the game is over
+	void end(long frame) {
+		if (!recording) {
+			return;
+		}
+
+		writeVarint(frame - lastFrame);
+		lastFrame = frame;
+		writeByte(TAG_END);
+
+		recording = false;
+
+		if (file != null) {
+			try {
+				Files.createDirectories(directory);
+				Files.write(file, toByteArray());
+			} catch (IOException ex) {
+				System.out.printf("Couldn't save the replay to %s: %s\n", file, ex.getMessage());
+			}
+		}
+
+		//(working out its summary means playing the whole game, so that's done in the background)
+		if (archive != null) {
+			archive.addLater(toByteArray());
+		}
+	}
+
+	//stops recording without saving anything (e.g. the game was rewound, so it can't be played back)
+	void discard() {
+		recording = false;
+	}
+
+	byte[] toByteArray() {
+		return Arrays.copyOf(buffer, length);
+	}
+
+	private void writeByte(int b) {
+		if (length == buffer.length) {
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		buffer[length++] = (byte) b;
+	}
+
+	private void writeBytes(byte bytes[], int offset, int count) {
+		while (length + count > buffer.length) {
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		System.arraycopy(bytes, offset, buffer, length, count);
+		length += count;
+	}
+
+	//7 bits at a time, with the top bit set if there's more to come
+	private void writeVarint(long value) {
+		while ((value & ~0x7FL) != 0) {
+			writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		writeByte((int) value);
+	}
+}
@@ -0,0 +1,67 @@
+
+// The last few pieces of a game, so practice mode can go back and try them again.
+// Run with -Dtetris.rewind=<pieces> to turn it on, then BACKSPACE goes back a piece.
+//
+// The engine saves a snapshot into here every time a piece appears (at the end of the frame,
+// so every player is on the same frame). They go round in a circle, with the oldest one being
+// overwritten once it's full, and every snapshot is made when it starts, so saving one
+// or going back is just copying arrays and nothing is allocated while playing.
+//
+// A game that's been rewound isn't one game any more, so it stops being recorded.
+// No practice mode game is saved with the high scores, as even topping out can be rewound.
+
+
+class RewindBuffer {
+
+	private final GameSnapshot snapshots[];
+	private int newest = -1;			//the index of the last snapshot saved
+	private int count = 0;				//how many there are to go back to (including the newest)
+
+	RewindBuffer(int pieces, TetrisEngine engine) {
+		snapshots = new GameSnapshot[pieces];
+		for (int i = 0; i < pieces; ++i) {
+			snapshots[i] = new GameSnapshot(engine);
+		}
+	}
+
+	//forgets the last game (called by the engine when a new one starts)
+	void clear() {
+		newest = -1;
+		count = 0;
+	}
+
+	//called by the engine at the end of a frame where a piece appeared
+	void save(TetrisEngine engine) {
+		newest = (newest + 1) % snapshots.length;
+		engine.saveSnapshot(snapshots[newest]);
+
+		if (count < snapshots.length) {
+			++count;
+		}
+	}
+
+	//how many pieces it can go back
+	int available() {
+		return count - 1;
+	}
+
+	//goes back to when the piece 'pieces' before the current one appeared
+	//returns false if it doesn't go back that far
+	boolean rewind(TetrisEngine engine, int pieces) {
+		//after topping out, the piece that was last to appear is the first one to go back to
+		int steps = engine.isGameOver() ? pieces - 1 : pieces;
+		if (pieces < 1 || count == 0 || steps > available()) {
+			return false;
+		}
+
+		//the ones after it are gone, so going back again carries on from here
+		newest = (newest - steps + snapshots.length) % snapshots.length;
+		count -= steps;
+		engine.loadSnapshot(snapshots[newest]);
+
+		if (engine.recorder != null) {
+			engine.recorder.discard();
+		}
+		return true;
+	}
+}
@@ -0,0 +1,86 @@
+
+// java.util.SplittableRandom, but with a state that can be read and put back (SplittableRandom keeps it private).
+// It's exactly the same maths (SplitMix64), so 'new SplitRandom(seed)' gives the same numbers as
+// 'new SplittableRandom(seed)', and splitFrom(parent) gives the same generator as parent.split().
+//
+// Splitting is what gives each player their own pieces: every player's generator is split off
+// the game's one in turn, so what one player gets never depends on how many pieces the others have had.
+// The whole state is two longs, so it goes into keyframes and snapshots, and splitFrom() fills in
+// one that's already made, so starting a game doesn't allocate.
+
+
+class SplitRandom {
+
+	//the constants from java.util.SplittableRandom
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	long seed;
+	long gamma;			//always odd
+
+	SplitRandom() {
+		this(0);
+	}
+
+	SplitRandom(long seed) {
+		setSeed(seed);
+	}
+
+	void setSeed(long seed) {
+		this.seed = seed;
+		gamma = GOLDEN_GAMMA;
+	}
+
+	//makes this the generator 'parent.split()' would return
+	void splitFrom(SplitRandom parent) {
+		long seed = parent.nextLong();
+		gamma = mixGamma(parent.nextSeed());
+		this.seed = seed;
+	}
+
+	long nextLong() {
+		return mix64(nextSeed());
+	}
+
+	int nextInt() {
+		return mix32(nextSeed());
+	}
+
+	//SplittableRandom.nextInt(bound)
+	int nextInt(int bound) {
+		int r = nextInt();
+		int m = bound - 1;
+
+		if ((bound & m) == 0) {
+			return r & m;
+		}
+
+		//drop the top of the range that doesn't divide evenly, so every value is as likely
+		for (int u = r >>> 1; u + m - (r = u % bound) < 0; u = nextInt() >>> 1);
+		return r;
+	}
+
+	private long nextSeed() {
+		return seed += gamma;
+	}
+
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private static int mix32(long z) {
+		z = (z ^ (z >>> 33)) * 0x62A9D9ED799705F5L;
+		return (int) (((z ^ (z >>> 28)) * 0xCB24D0A5C88C35B3L) >>> 32);
+	}
+
+	private static long mixGamma(long z) {
+		z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+		z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		z = (z ^ (z >>> 33)) | 1L;
+
+		//not enough bits changing between neighbours makes a poor gamma
+		int n = Long.bitCount(z ^ (z >>> 1));
+		return n < 24 ? z ^ 0xAAAAAAAAAAAAAAAAL : z;
+	}
+}
@@ -0,0 +1,345 @@
+
+import java.awt.event.KeyEvent;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+
+
+// Draws the game in a terminal with ANSI escape codes, so it can be played over SSH without X.
+// Run with -Dtetris.renderer=terminal (it needs a terminal at least 90 columns wide).
+//
+// It keeps a copy of what the terminal is showing, and each frame only the characters which
+// are different get sent, with a cursor move in front of each run of them. Everything for a
+// frame goes into one buffer first, so it's a single write() to stdout per frame, and nothing
+// is allocated while playing. The tiles are sent as coloured blocks.
+//
+// The keyboard is read from stdin with the terminal in raw mode (set with stty), so keys arrive
+// straight away instead of a line at a time. They're turned into the same KeyEvents the window uses.
+//
+// Run with 'java -Djava.awt.headless=true TerminalView [frames]' to see how many bytes and writes
+// a frame takes (the output goes to /dev/null)
+
+
+class TerminalView {
+
+	private static final byte ESCAPE = 27;
+
+	//a run of unchanged characters shorter than this is just sent again, as it's smaller than a cursor move
+	static final int MIN_SKIP = 6;
+
+	//the background colour for each shape, in the order of the TetrisEngine.TILE_XXX constants
+	//(there's no orange in the 8 ANSI colours, so L is white)
+	static final int TILE_COLOURS[] = {46, 43, 45, 44, 47, 42, 41};
+	static final int NO_COLOUR = 0;
+
+	private final TextRenderer renderer;
+	private final FileChannel out;
+
+	//what the terminal is showing now (0 for unknown, so it gets sent)
+	private final char shown[] = new char[TextRenderer.NUM_LINES * TextRenderer.LINE_STRIDE];
+	private boolean redrawAll = true;
+
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+	private int colour = NO_COLOUR;			//the colour the terminal is set to
+
+	//for working out the cost per frame
+	long frames = 0;
+	long bytesWritten = 0;
+	long writes = 0;
+
+	TerminalView(TextRenderer renderer, FileChannel out) {
+		this.renderer = renderer;
+		this.out = out;
+	}
+
+	//writes to stdout
+	TerminalView(TextRenderer renderer) {
+		this(renderer, new FileOutputStream(FileDescriptor.out).getChannel());
+	}
+
+	//sends the characters which changed since the last frame, returns how many lines had changes
+	int draw() throws IOException {
+		buffer.clear();
+		int changedLines = 0;
+
+		for (int line = 0; line < TextRenderer.NUM_LINES; ++line) {
+			if (!redrawAll && !renderer.dirty[line]) {
+				continue;
+			}
+
+			int start = line * TextRenderer.LINE_STRIDE;
+			int column = 0;
+			boolean changed = false;
+
+			while (column < TextRenderer.LINE_WIDTH) {
+				if (renderer.frame[start + column] == shown[start + column]) {
+					++column;
+					continue;
+				}
+
+				//the start of a run of changes, so move the cursor there
+				moveCursor(line, column);
+				changed = true;
+
+				//and keep going until there's a long enough gap with no changes
+				int same = 0;
+				while (column < TextRenderer.LINE_WIDTH && same < MIN_SKIP) {
+					if (renderer.frame[start + column] == shown[start + column]) {
+						++same;
+					} else {
+						//send anything that was the same in between, then this
+						for (int pos = start + column - same; pos <= start + column; ++pos) {
+							putCell(pos);
+						}
+						same = 0;
+					}
+					++column;
+				}
+			}
+
+			if (changed) {
+				++changedLines;
+			}
+		}
+
+		redrawAll = false;
+
+		if (buffer.position() != 0) {
+			setColour(NO_COLOUR);
+			flush();
+		}
+
+		++frames;
+		return changedLines;
+	}
+
+	//puts some text up instead of the game (the title screen), and forgets what was showing
+	void drawText(String text) throws IOException {
+		buffer.clear();
+		setColour(NO_COLOUR);
+
+		//clear the screen and go to the top left, then the text with the newlines turned into CR LF (as it's in raw mode)
+		putEscape('2', 'J');
+		putEscape('H');
+
+		for (int i = 0; i < text.length() && buffer.remaining() > 16; ++i) {
+			char c = text.charAt(i);
+			if (c == '\n') {
+				buffer.put((byte) '\r');
+			}
+			buffer.put((byte) (c < 128 ? c : '?'));
+		}
+
+		flush();
+		++frames;
+
+		//the next frame goes over the top of this, so all of it has to be sent
+		redrawAll = true;
+		Arrays.fill(shown, (char) 0);
+	}
+
+	private void putCell(int pos) {
+		char c = renderer.frame[pos];
+		shown[pos] = c;
+
+		//tiles are a coloured space, everything else is just the character
+		int cellColour = NO_COLOUR;
+		if (TextRenderer.TILE_CELLS[pos]) {
+			if (c >= 'A' && c < 'A' + TILE_COLOURS.length) {
+				cellColour = TILE_COLOURS[c - 'A'];
+				c = ' ';
+			} else if (c >= 'a' && c < 'a' + TILE_COLOURS.length) {
+				cellColour = TILE_COLOURS[c - 'a'];
+				c = ' ';
+			}
+		}
+
+		setColour(cellColour);
+		buffer.put((byte) (c < 128 ? c : '?'));
+	}
+
+	private void setColour(int newColour) {
+		if (newColour == colour) {
+			return;
+		}
+		colour = newColour;
+
+		buffer.put(ESCAPE).put((byte) '[');
+		putNumber(newColour);
+		buffer.put((byte) 'm');
+	}
+
+	//ESC [ row ; column H (they count from 1)
+	private void moveCursor(int line, int column) {
+		buffer.put(ESCAPE).put((byte) '[');
+		putNumber(line + 1);
+		buffer.put((byte) ';');
+		putNumber(column + 1);
+		buffer.put((byte) 'H');
+	}
+
+	private void putEscape(char... codes) {
+		buffer.put(ESCAPE).put((byte) '[');
+		for (char code : codes) {
+			buffer.put((byte) code);
+		}
+	}
+
+	//writes the digits straight into the buffer (no Strings)
+	private void putNumber(int value) {
+		if (value >= 100) {
+			buffer.put((byte) ('0' + value / 100));
+		}
+		if (value >= 10) {
+			buffer.put((byte) ('0' + value / 10 % 10));
+		}
+		buffer.put((byte) ('0' + value % 10));
+	}
+
+	//one write for everything, unless the terminal can't take it all at once
+	private void flush() throws IOException {
+		buffer.flip();
+		bytesWritten += buffer.remaining();
+
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+			++writes;
+		}
+	}
+
+	//clears the screen, hides the cursor and puts the terminal into raw mode
+	//returns the old settings, for restoreTerminal
+	static String rawMode() throws IOException, InterruptedException {
+		String settings = stty("-g").trim();
+		stty("raw", "-echo");
+
+		System.out.print("\u001b[?25l\u001b[2J");
+		System.out.flush();
+		return settings;
+	}
+
+	static void restoreTerminal(String settings) {
+		System.out.print("\u001b[0m\u001b[?25h\u001b[2J\u001b[H");
+		System.out.flush();
+
+		try {
+			stty(settings);
+		} catch (Exception ex) {
+			System.err.printf("Couldn't put the terminal back: %s\n", ex.getMessage());
+		}
+	}
+
+	//runs stty on the terminal, and returns what it printed
+	private static String stty(String... args) throws IOException, InterruptedException {
+		String command[] = new String[args.length + 1];
+		command[0] = "stty";
+		System.arraycopy(args, 0, command, 1, args.length);
+
+		Process process = new ProcessBuilder(command).redirectInput(new File("/dev/tty")).redirectErrorStream(true).start();
+		byte output[] = process.getInputStream().readAllBytes();
+		process.waitFor();
+
+		return new String(output, StandardCharsets.US_ASCII);
+	}
+
+	//reads keys from the terminal and passes them on until stdin closes
+	//the arrow keys come in as ESC [ A to D, and everything else is the character itself
+	//(so Q is the keyCode of the letter, and ctrl-C is just byte 3)
+	static void readKeys(InputStream in, KeyHandler keys) throws IOException {
+		int escape = 0;
+		int c;
+
+		while ((c = in.read()) != -1) {
+			if (escape == 1) {
+				escape = c == '[' ? 2 : 0;
+				if (escape == 0) {
+					keys.key(KeyEvent.VK_ESCAPE);
+				} else {
+					continue;
+				}
+			}
+
+			if (escape == 2) {
+				escape = 0;
+
+				if 		(c == 'A')	keys.key(KeyEvent.VK_UP);
+				else if (c == 'B')	keys.key(KeyEvent.VK_DOWN);
+				else if (c == 'C')	keys.key(KeyEvent.VK_RIGHT);
+				else if (c == 'D')	keys.key(KeyEvent.VK_LEFT);
+				continue;
+			}
+
+			if (c == ESCAPE) {
+				escape = 1;
+			} else if (c == 3 || c == 4) {			//ctrl-C or ctrl-D
+				return;
+			} else if (c == '\r' || c == '\n') {
+				keys.key(KeyEvent.VK_ENTER);
+			} else if (c == 127 || c == 8) {			//backspace is DEL on most terminals
+				keys.key(KeyEvent.VK_BACK_SPACE);
+			} else {
+				//the letter keyCodes are the capitals, and the digits and space are themselves
+				keys.key(Character.toUpperCase(c));
+			}
+		}
+	}
+
+	interface KeyHandler {
+		void key(int keyCode);
+	}
+
+	//draws frames to /dev/null to see how much gets written
+	public static void main(String[] args) throws IOException {
+		int numFrames = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+		TetrisEngine engine = new TetrisEngine();
+		engine.numPlayers = 2;
+		engine.startGame(1);
+
+		TextRenderer renderer = new TextRenderer(engine);
+
+		try (FileChannel devNull = new FileOutputStream("/dev/null").getChannel()) {
+			TerminalView view = new TerminalView(renderer, devNull);
+
+			//the first frame is the whole screen
+			renderer.render();
+			view.draw();
+			System.out.printf("first frame: %d bytes\n", view.bytesWritten);
+
+			view.frames = 0;
+			view.bytesWritten = 0;
+			view.writes = 0;
+
+			int changedFrames = 0;
+			long start = System.nanoTime();
+
+			for (int i = 0; i < numFrames; ++i) {
+				if (engine.isGameOver()) {
+					engine.startGame(i);
+				}
+				engine.step(i & 1, (i >> 1) % 6);
+				engine.tick();
+
+				if (renderer.render()) {
+					++changedFrames;
+				}
+				view.draw();
+			}
+
+			double seconds = (System.nanoTime() - start) / 1000000000.0;
+
+			System.out.printf("%d frames (%d changed): %.1f bytes per frame, %.2f writes per frame, %.1fus per frame\n",
+					view.frames, changedFrames, (double) view.bytesWritten / view.frames, (double) view.writes / view.frames,
+					seconds * 1000000.0 / view.frames);
+		}
+	}
+}
@@ -0,0 +1,1012 @@
+
+import java.nio.ByteBuffer;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+// The game logic, split out of the Tetris text box.
+// Nothing in here touches Swing or AWT, so bots and simulations
+// can run as many games as they like without a window.
+// The Tetris class is now just a thin client which turns key presses
+// into calls to step() and each frame into a call to tick()
+// tick() advances the game by one frame (60hz), so gravity and the delays
+// after a piece locks are all counted in frames, like the NES
+
+
+public class TetrisEngine {
+
+	///
+	///CONSTANTS
+	///
+
+	static final byte TILE_I = 0;			//handled as a 4x4 shape rotation (https://tetris.wiki/Super_Rotation_System)
+	static final byte TILE_O = 1;			//doesn't get rotated
+	static final byte TILE_T = 2;			//the rest are 3x3 shapes
+	static final byte TILE_J = 3;
+	static final byte TILE_L = 4;
+	static final byte TILE_S = 5;
+	static final byte TILE_Z = 6;
+	static final byte TILE_BLANK = 7;		//blank tile
+	static final byte TILE_WALL = 8;		//wall tile
+	static final byte TILE_CLEARED = 9;		//set when a tile is cleared, and removed when the line clear delay is over
+
+	static final int GAME_STATE_GAMEOVER = 0;		//game over state
+	static final int GAME_STATE_RUNNING	 = 1;		//normal gameplay
+	static final int GAME_STATE_TITLE 	 = 2;		//title screen
+	static final int GAME_STATE_PAUSED 	 = 3;		//game paused
+	static final int GAME_STATE_ASK_RESTART = 4;	//the 'do you want to restart' screen
+
+	static final int PLAYER_1 = 0;
+	static final int PLAYER_2 = 1;
+
+	//inputs which can be passed to step()
+	static final int INPUT_LEFT = 0;
+	static final int INPUT_RIGHT = 1;
+	static final int INPUT_SOFT_DROP = 2;
+	static final int INPUT_HARD_DROP = 3;
+	static final int INPUT_ROTATE_LEFT = 4;
+	static final int INPUT_ROTATE_RIGHT = 5;
+	static final int INPUT_RELEASE_DROP = 6;		//the down/up key was let go
+
+	//bit flags returned by step() and tick() so the caller knows what happened
+	static final int EVENT_MOVED = 1;				//the piece moved or rotated
+	static final int EVENT_LOCKED = 2;				//the piece got stuck
+	static final int EVENT_LINES_CLEARED = 4;		//at least one row was set to TILE_CLEARED
+	static final int EVENT_GAME_OVER = 8;			//the new piece didn't fit
+	static final int EVENT_SPEED_CHANGED = 16;		//someone went up a level, so gravityFrames changed
+	static final int EVENT_SPAWNED = 32;			//the next piece appeared at the top
+
+	//what each player's piece is doing
+	//the old code slept on the Swing thread after a piece locked, now the delays are
+	//states which get counted down one frame per tick, so nothing else has to wait
+	static final int PHASE_FALLING = 0;			//there is a piece, and gravity is moving it down
+	static final int PHASE_LINE_CLEAR = 1;		//full rows are showing as TILE_CLEARED before they get removed
+	static final int PHASE_ENTRY_DELAY = 2;		//waiting for the next piece to appear (ARE)
+
+
+	//the standard board, including the walls and the floor (10x17 inside them)
+	//custom boards can be any size BitBoard can hold, but the window, replays and versus games only use this one
+	static final int PLAYFIELD_WIDTH = 12;
+	static final int PLAYFIELD_HEIGHT = 18;
+
+	static final int tetrominos[] = {
+
+		//An array of 7 tetrominos, either stored as 16 or 9 bits, depending on the tile size
+		//Tiles I and O are 4x4,
+		//and the others are 3x3
+
+		//I would like to lay this out in a more readable fashion, but Java doesn't support
+		//a backslash as a line continuation character
+
+		//The tetrominos are stored so bit 15/8 (MSB) is the bottom right, and bit 0 (LSB) is the top left
+		//this to simplify the code later on
+
+		//0: I
+		0b0000000011110000,		//4x4
+
+		//1: O
+		0b0000000000110011,		//4x4
+
+		//2: T
+		0b0000000000111010,		//3x3
+
+		//3: J
+		0b0000000000111001,		//3x3
+
+		//4: L
+		0b0000000000111100,		//3x3
+
+		//5: S
+		0b0000000000011110,		//3x3
+
+		//6: Z
+		0b0000000000110011,		//3x3
+	};
+
+
+	static int scoreLookup[] = {0, 40, 100, 300, 1200};			//score lookup table based on rows cleared (from the NES version)
+
+	//delay between the block moving downward based on current level
+	//stored in frames (60hz), copied from the NES version of tetris)
+	//the UI converts this to milliseconds
+	static int speedLookup[] = {48, 43, 38, 33, 28, 23, 18, 13, 8, 6, 5, 5, 5, 4, 4, 4, 3, 3, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 1};
+
+	//the default delays after a piece locks, in frames, based on the current level
+	//levels past the end of a table use the last value
+	//the old code slept for 200ms (12 frames) before the next piece, and the NES
+	//flashes cleared lines for about 18 frames
+	static final int defaultEntryDelays[] = {12};
+	static final int defaultLineClearDelays[] = {18};
+
+
+	///
+	/// GAME STATE
+	///
+
+	//each player gets a state
+	static class PlayerState {
+		int currentX;					//current tetromino X position
+		int currentY;					//current tetromino Y position
+		int currentShape;				//current tetromino type (0-6)
+		int currentDirection;			//current tetromino direction (in 90 degree increments, e.g. 3 = 270 degrees)
+		int nextShape;					//the next tetromino type to appear
+		final PieceQueue queue = new PieceQueue();	//and the ones after it
+
+		int dropCounter;				//keeps track of how long the down key is held to give bonus points after the piece lands
+
+		boolean delayTileDropFromTop;	//used to make the tile not move down on its first drop when the playfield is nearly full
+
+		int levelOnRestart = 0;			//the level to go to when you start/restart
+		int score;						//the player's score
+		int top = DEFAULT_TOP;			//the player's top (the best score on this starting level if there are high scores)
+		int level;						//starts at zero and goes up every 10 lines
+		int linesCleared;
+		int linesClearedThisLevel;
+		int pieces;						//how many pieces have appeared this game (so a bot can tell when there's a new one)
+
+		boolean lost = false;			//set to true if you lose (used in 2 player mode)
+
+		boolean displayGuide = true;	//shows you where the piece will land
+
+		int gravityFrames;				//frames (60hz) between the block falling
+		int gravityCounter;				//frames since the block last fell
+
+		int phase;						//one of the PHASE_XXX constants
+		int phaseFrames;				//frames left before the line clear or entry delay is over
+
+		//where the current piece would land, kept until the piece or the board changes
+		int landingY;
+		int landingPiece = -1;			//the PieceTable index, X and board version it was worked out for
+		int landingX;
+		int landingVersion;
+
+		TetrisEvents.LinesCleared lineClearEvent;	//the flight recorder event for the line clear that's showing (null if there isn't one)
+	};
+
+	//the top score to show when there isn't a better one saved
+	static final int DEFAULT_TOP = 21519;
+
+	//stores every player (there can be any number, for bots and parties, but the window only shows two)
+	PlayerState players[] = null;
+
+	//overall game state
+	int gameState;							//see the constants above 'TILE_XXX'
+
+	//holds a playfield for each player
+	byte playfields[][] = null;				//holds the internal playfield layout (used for the colours when drawing)
+
+	//and the same playfields stored as one long per row, for collision and line detection
+	BitBoard boards[] = null;
+
+	//the size of every player's playfield, including the walls and the floor
+	final int width;
+	final int height;
+
+	//every player has their own RNG in their PieceQueue, split off this one when the game starts
+	private final SplitRandom rng = new SplitRandom();
+	long seed;								//what the RNG was seeded with, so the game can be played again
+
+	//how the pieces are picked (the same for every player), changing it takes effect next game
+	Randomizer randomizer = Randomizer.NES;
+
+	//how many of the next pieces to show (up to PieceQueue.PREVIEW)
+	int preview = 1;
+
+	//how many frames the game has been running for (doesn't count when paused)
+	long frame;
+
+	//if this is set, every input (and a keyframe every now and then) gets recorded
+	ReplayRecorder recorder = null;
+
+	//if this is set, everyone's score is saved there when the game is over, and the tops come from it
+	HighScores highScores = null;
+
+	//if this is set, a snapshot is saved there whenever a piece appears, for practice mode
+	RewindBuffer rewind = null;
+
+	//how many of the players are playing (1 or 2 in the window, up to players.length)
+	int numPlayers = 1;
+
+	//the delays after a piece locks, these can be changed (e.g. set to zero for simulations)
+	int entryDelays[] = defaultEntryDelays.clone();
+	int lineClearDelays[] = defaultLineClearDelays.clone();
+
+
+	///
+	/// CODE
+	///
+
+	public TetrisEngine() {
+		this(2);
+	}
+
+	//'maxPlayers' is the most players a game can have, everything is allocated up front
+	public TetrisEngine(int maxPlayers) {
+		this(maxPlayers, PLAYFIELD_WIDTH, PLAYFIELD_HEIGHT);
+	}
+
+	//a custom board, 'width' and 'height' include the walls and the floor (see BitBoard for how big they can be)
+	public TetrisEngine(int maxPlayers, int width, int height) {
+		this.width = width;
+		this.height = height;
+
+		players = new PlayerState[maxPlayers];
+		boards = new BitBoard[maxPlayers];
+
+		//allocate playfield memory
+		playfields = new byte[maxPlayers][height * width];
+
+		for (int i = 0; i < maxPlayers; ++i) {
+			players[i] = new PlayerState();
+			boards[i] = new BitBoard(width, height);
+		}
+
+		gameState = GAME_STATE_TITLE;
+	}
+
+	//sets the level every player starts on next game
+	void setStartLevel(int level) {
+		for (PlayerState p : players) {
+			p.levelOnRestart = level;
+		}
+	}
+
+	private void setSpeed(int player) {
+		//speed calcuations same as the NES game
+
+		int frames = 0;
+
+		if (players[player].level >= 29) { 		//maximum level?
+			frames = 1;
+
+		} else {
+			//otherwise use a lookup table
+			frames = speedLookup[players[player].level];
+		}
+
+		if (numPlayers > 1) {
+			//NEW FEATURE: in two player mode, you set the speed of your opponent
+			//(with more players, it's whoever is after you, going round in a circle)
+			player = (player + 1) % numPlayers;
+		}
+		players[player].gravityFrames = frames;
+	}
+
+	public void startGame() {
+		//a different game every time
+		startGame(new Random().nextLong());
+	}
+
+	//the same seed (and starting levels) always gives the same pieces
+	public void startGame(long seed) {
+		//initialise game state
+		this.seed = seed;
+		rng.setSeed(seed);
+		gameState = GAME_STATE_RUNNING;
+		frame = 0;
+
+		//set up every player
+		for (int i = 0; i < numPlayers; ++i) {
+			boards[i].clear();
+
+			players[i].level = players[i].levelOnRestart;
+			players[i].queue.start(rng, randomizer);		//must be called before 'createNewBlock'
+			players[i].nextShape = players[i].queue.take();
+			players[i].score = 0;
+			players[i].dropCounter = 0;
+			players[i].linesCleared = 0;
+			players[i].linesClearedThisLevel = 0;
+			players[i].pieces = 0;
+			players[i].delayTileDropFromTop = false;
+			players[i].lost = false;
+			players[i].lineClearEvent = null;
+			players[i].gravityCounter = 0;
+			players[i].phase = PHASE_FALLING;
+
+			if (highScores != null) {
+				int best = highScores.best(i, players[i].levelOnRestart);
+				players[i].top = best > 0 ? best : DEFAULT_TOP;
+			}
+
+			createNewBlock(i);
+		}
+
+		//fill the playfield with spaces, except for the edges, which will be walls
+		int index = 0;
+
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				playfields[PLAYER_1][index] = (y == height - 1 || x == 0 || x == width - 1) ? TILE_WALL : TILE_BLANK;
+				++index;		//cannot go on the line above as 'index' is used twice and would cause undefined behaviour
+			}
+		}
+
+		//and copy it for everyone else
+		for (int i = 1; i < numPlayers; ++i) {
+			System.arraycopy(playfields[PLAYER_1], 0, playfields[i], 0, playfields[i].length);
+		}
+
+		//work out the starting speeds
+		for (int i = 0; i < numPlayers; ++i) {
+			setSpeed(i);
+		}
+
+		if (recorder != null) {
+			recorder.start(this);
+		}
+
+		if (rewind != null) {
+			rewind.clear();
+			rewind.save(this);
+		}
+	}
+
+	//handles one input for a player, this is what a key press turns into
+	public int step(int player, int input) {
+		//there's nothing to move during the delays after a piece locks (or after you've lost)
+		if (gameState != GAME_STATE_RUNNING || players[player].phase != PHASE_FALLING || players[player].lost) {
+			return 0;
+		}
+
+		if (recorder != null) {
+			recorder.recordInput(frame, player, input);
+		}
+
+		PlayerState p = players[player];
+
+		switch (input) {
+		case INPUT_LEFT:
+			if (doesPieceFit(player, p.currentShape, p.currentDirection, p.currentX - 1, p.currentY)) {
+				--p.currentX;
+				return EVENT_MOVED;
+			}
+			return 0;
+
+		case INPUT_RIGHT:
+			if (doesPieceFit(player, p.currentShape, p.currentDirection, p.currentX + 1, p.currentY)) {
+				++p.currentX;
+				return EVENT_MOVED;
+			}
+			return 0;
+
+		case INPUT_SOFT_DROP:
+			if (doesPieceFit(player, p.currentShape, p.currentDirection, p.currentX, p.currentY + 1)) {
+				++p.dropCounter;
+				return moveBlockDown(player);
+			}
+			return 0;
+
+		case INPUT_HARD_DROP:
+		{
+			//straight to where it lands in one go, with the same bonus as dropping it a row at a time
+			int distance = landingY(player) - p.currentY;
+			if (distance <= 0) {
+				return 0;
+			}
+
+			p.currentY += distance;
+			p.dropCounter += distance;
+			return EVENT_MOVED;
+		}
+
+		case INPUT_ROTATE_LEFT:
+			if (doesPieceFit(player, p.currentShape, p.currentDirection - 1, p.currentX, p.currentY)) {
+				--p.currentDirection;
+				return EVENT_MOVED;
+			}
+			return 0;
+
+		case INPUT_ROTATE_RIGHT:
+			if (doesPieceFit(player, p.currentShape, p.currentDirection + 1, p.currentX, p.currentY)) {
+				++p.currentDirection;
+				return EVENT_MOVED;
+			}
+			return 0;
+
+		case INPUT_RELEASE_DROP:
+			//reset the length of time the down/up key has been held
+			//(only if the piece hasn't yet hit the ground)
+			//this is to add extra points depending on how long the key is held
+			if (doesPieceFit(player, p.currentShape, p.currentDirection, p.currentX, p.currentY + 1)) {
+				p.dropCounter = 0;
+			}
+			return 0;
+		}
+
+		return 0;
+	}
+
+	//advances a player by one frame
+	public int tick(int player) {
+		if (gameState != GAME_STATE_RUNNING || players[player].lost) {
+			return 0;
+		}
+
+		PlayerState p = players[player];
+
+		if (p.phase == PHASE_LINE_CLEAR) {
+			if (--p.phaseFrames > 0) {
+				return 0;
+			}
+
+			//the flash is over, so the rows can go now
+			cleanupClearedTiles(player);
+			return startEntryDelay(player);
+
+		} else if (p.phase == PHASE_ENTRY_DELAY) {
+			if (--p.phaseFrames > 0) {
+				return 0;
+			}
+
+			return spawnPiece(player);
+		}
+
+		//gravity only moves the piece every 'gravityFrames' frames
+		if (++p.gravityCounter < p.gravityFrames) {
+			return 0;
+		}
+		p.gravityCounter = 0;
+
+		//this is used to delay falling by 1 unit of time when the block first appears
+		//when the tiles are high in the playfield. This allows the player to have a bit
+		//more time to move it
+
+		if (p.delayTileDropFromTop) {
+			p.delayTileDropFromTop = false;
+			return 0;
+		}
+
+		return moveBlockDown(player);
+	}
+
+	//advances every player by one frame
+	public int tick() {
+		if (gameState != GAME_STATE_RUNNING) {
+			return 0;
+		}
+
+		++frame;
+
+		//every player's frame is run together, so however many there are they all stay in step
+		int events = 0;
+		for (int i = 0; i < numPlayers; ++i) {
+			events |= tick(i);
+		}
+
+		if (recorder != null) {
+			recorder.frameDone(this);
+		}
+
+		if (rewind != null && (events & EVENT_SPAWNED) != 0 && gameState == GAME_STATE_RUNNING) {
+			rewind.save(this);
+		}
+
+		return events;
+	}
+
+	public boolean isPieceActive(int player) {
+		return players[player].phase == PHASE_FALLING;
+	}
+
+	//works out a delay for the player's current level from one of the delay tables
+	private int lookupDelay(int delays[], int player) {
+		return delays[Math.min(players[player].level, delays.length - 1)];
+	}
+
+	private int startLineClear(int player) {
+		players[player].phase = PHASE_LINE_CLEAR;
+		players[player].phaseFrames = lookupDelay(lineClearDelays, player);
+
+		//no delay at all, so just go straight on
+		if (players[player].phaseFrames <= 0) {
+			cleanupClearedTiles(player);
+			return startEntryDelay(player);
+		}
+
+		return 0;
+	}
+
+	private int startEntryDelay(int player) {
+		players[player].phase = PHASE_ENTRY_DELAY;
+		players[player].phaseFrames = lookupDelay(entryDelays, player);
+
+		if (players[player].phaseFrames <= 0) {
+			return spawnPiece(player);
+		}
+
+		return 0;
+	}
+
+	private int spawnPiece(int player) {
+		//get the next block ready
+		createNewBlock(player);
+
+		players[player].phase = PHASE_FALLING;
+		players[player].gravityCounter = 0;
+
+		//does the new piece actually fit?
+		if (!doesPieceFit(player, players[player].currentShape, players[player].currentDirection, players[player].currentX, players[player].currentY)) {
+			players[player].lost = true;
+
+			//the game is over once there's only one player left (or none in 1 player mode)
+			if (playersLeft() <= (numPlayers > 1 ? 1 : 0)) {
+				gameState = GAME_STATE_GAMEOVER;		//stops the game
+
+				if (recorder != null) {
+					recorder.end(frame);
+				}
+				//(not in practice mode, as topping out there can still be rewound)
+				if (highScores != null && rewind == null) {
+					for (int i = 0; i < numPlayers; ++i) {
+						highScores.add(i, players[i].levelOnRestart, players[i], seed);
+					}
+				}
+				return EVENT_SPAWNED | EVENT_GAME_OVER;
+			}
+		}
+
+		return EVENT_SPAWNED;
+	}
+
+	//how many players haven't lost yet
+	int playersLeft() {
+		int left = 0;
+		for (int i = 0; i < numPlayers; ++i) {
+			if (!players[i].lost) {
+				++left;
+			}
+		}
+		return left;
+	}
+
+	//the piece 'i' after the current one (0 is the next piece), for the preview
+	int upcoming(int player, int i) {
+		return i == 0 ? players[player].nextShape : players[player].queue.peek(i - 1);
+	}
+
+	public boolean isGameOver() {
+		return gameState == GAME_STATE_GAMEOVER;
+	}
+
+	//writes out everything needed to carry on the game from this point
+	//(used for replay keyframes)
+	void saveState(ByteBuffer out) {
+		out.putLong(frame);
+		out.putLong(seed);
+		out.put((byte) Randomizer.id(randomizer));
+		out.putInt(gameState);
+		out.putInt(numPlayers);
+
+		for (int i = 0; i < numPlayers; ++i) {
+			PlayerState p = players[i];
+
+			out.putInt(p.currentX);
+			out.putInt(p.currentY);
+			out.putInt(p.currentShape);
+			out.putInt(p.currentDirection);
+			out.putInt(p.nextShape);
+			out.putInt(p.dropCounter);
+			out.put((byte) (p.delayTileDropFromTop ? 1 : 0));
+			out.putInt(p.levelOnRestart);
+			out.putInt(p.score);
+			out.putInt(p.top);
+			out.putInt(p.level);
+			out.putInt(p.linesCleared);
+			out.putInt(p.linesClearedThisLevel);
+			out.putInt(p.pieces);
+			out.put((byte) (p.lost ? 1 : 0));
+			out.putInt(p.gravityFrames);
+			out.putInt(p.gravityCounter);
+			out.putInt(p.phase);
+			out.putInt(p.phaseFrames);
+			p.queue.save(out);
+
+			out.put(playfields[i]);
+			for (long row : boards[i].rows) {
+				out.putLong(row);
+			}
+		}
+	}
+
+	//the opposite of saveState
+	void loadState(ByteBuffer in) {
+		frame = in.getLong();
+		seed = in.getLong();
+		randomizer = Randomizer.ALL[in.get()];
+		gameState = in.getInt();
+		numPlayers = in.getInt();
+
+		for (int i = 0; i < numPlayers; ++i) {
+			PlayerState p = players[i];
+
+			p.currentX = in.getInt();
+			p.currentY = in.getInt();
+			p.currentShape = in.getInt();
+			p.currentDirection = in.getInt();
+			p.nextShape = in.getInt();
+			p.dropCounter = in.getInt();
+			p.delayTileDropFromTop = in.get() != 0;
+			p.levelOnRestart = in.getInt();
+			p.score = in.getInt();
+			p.top = in.getInt();
+			p.level = in.getInt();
+			p.linesCleared = in.getInt();
+			p.linesClearedThisLevel = in.getInt();
+			p.pieces = in.getInt();
+			p.lost = in.get() != 0;
+			p.gravityFrames = in.getInt();
+			p.gravityCounter = in.getInt();
+			p.phase = in.getInt();
+			p.phaseFrames = in.getInt();
+			p.queue.load(in);
+			p.queue.randomizer = randomizer;
+
+			in.get(playfields[i]);
+			for (int y = 0; y < boards[i].rows.length; ++y) {
+				boards[i].rows[y] = in.getLong();
+			}
+			boards[i].updateColumns();
+		}
+	}
+
+	//copies the whole game into a snapshot (see GameSnapshot), without allocating anything
+	//(the snapshot has to have been made for this engine, or one with the same size board)
+	void saveSnapshot(GameSnapshot s) {
+		int ints[] = s.ints;
+
+		ints[0] = (int) (frame >>> 32);
+		ints[1] = (int) frame;
+		ints[2] = (int) (seed >>> 32);
+		ints[3] = (int) seed;
+		ints[4] = Randomizer.id(randomizer);
+		ints[5] = gameState;
+		ints[6] = numPlayers;
+
+		for (int i = 0; i < numPlayers; ++i) {
+			PlayerState p = players[i];
+			int pos = GameSnapshot.playerStart(i);
+
+			ints[pos++] = p.currentX;
+			ints[pos++] = p.currentY;
+			ints[pos++] = p.currentShape;
+			ints[pos++] = p.currentDirection;
+			ints[pos++] = p.nextShape;
+			ints[pos++] = p.dropCounter;
+			ints[pos++] = p.delayTileDropFromTop ? 1 : 0;
+			ints[pos++] = p.levelOnRestart;
+			ints[pos++] = p.score;
+			ints[pos++] = p.top;
+			ints[pos++] = p.level;
+			ints[pos++] = p.linesCleared;
+			ints[pos++] = p.linesClearedThisLevel;
+			ints[pos++] = p.pieces;
+			ints[pos++] = p.lost ? 1 : 0;
+			ints[pos++] = p.gravityFrames;
+			ints[pos++] = p.gravityCounter;
+			ints[pos++] = p.phase;
+			ints[pos++] = p.phaseFrames;
+			p.queue.save(ints, pos);
+
+			int board = i * s.boardLongs;
+			System.arraycopy(boards[i].rows, 0, s.longs, board, s.boardRows);
+			System.arraycopy(boards[i].columns, 0, s.longs, board + s.boardRows, boards[i].columns.length);
+			s.longs[board + s.boardLongs - 2] = boards[i].hash;
+			s.longs[board + s.boardLongs - 1] = boards[i].top;
+			System.arraycopy(playfields[i], 0, s.tiles, i * s.boardTiles, s.boardTiles);
+		}
+	}
+
+	//puts the game back the way it was when the snapshot was saved
+	void loadSnapshot(GameSnapshot s) {
+		int ints[] = s.ints;
+
+		frame = (long) ints[0] << 32 | (ints[1] & 0xFFFFFFFFL);
+		seed = (long) ints[2] << 32 | (ints[3] & 0xFFFFFFFFL);
+		randomizer = Randomizer.ALL[ints[4]];
+		gameState = ints[5];
+		numPlayers = ints[6];
+
+		for (int i = 0; i < numPlayers; ++i) {
+			PlayerState p = players[i];
+			int pos = GameSnapshot.playerStart(i);
+
+			p.currentX = ints[pos++];
+			p.currentY = ints[pos++];
+			p.currentShape = ints[pos++];
+			p.currentDirection = ints[pos++];
+			p.nextShape = ints[pos++];
+			p.dropCounter = ints[pos++];
+			p.delayTileDropFromTop = ints[pos++] != 0;
+			p.levelOnRestart = ints[pos++];
+			p.score = ints[pos++];
+			p.top = ints[pos++];
+			p.level = ints[pos++];
+			p.linesCleared = ints[pos++];
+			p.linesClearedThisLevel = ints[pos++];
+			p.pieces = ints[pos++];
+			p.lost = ints[pos++] != 0;
+			p.gravityFrames = ints[pos++];
+			p.gravityCounter = ints[pos++];
+			p.phase = ints[pos++];
+			p.phaseFrames = ints[pos++];
+			p.lineClearEvent = null;
+			p.queue.load(ints, pos);
+			p.queue.randomizer = randomizer;
+
+			int board = i * s.boardLongs;
+			System.arraycopy(s.longs, board, boards[i].rows, 0, s.boardRows);
+			System.arraycopy(s.longs, board + s.boardRows, boards[i].columns, 0, boards[i].columns.length);
+			boards[i].hash = s.longs[board + s.boardLongs - 2];
+			boards[i].top = (int) s.longs[board + s.boardLongs - 1];
+			System.arraycopy(s.tiles, i * s.boardTiles, playfields[i], 0, s.boardTiles);
+
+			//anything worked out from the old board has to be worked out again
+			++boards[i].version;
+		}
+	}
+
+	private int doScoring (int player, int rowsCleared) {
+		//scoring system found here (copied from the NES game)
+		//https://www.codewars.com/kata/tetris-series-number-1-scoring-system
+
+		players[player].score += scoreLookup[rowsCleared  ] * (players[player].level + 1);
+
+		players[player].score += players[player].dropCounter;
+		players[player].dropCounter = 0;
+
+		//set top score if needed
+		if (players[player].score > players[player].top) {
+			players[player].top = players[player].score;
+		}
+
+		//add thre lines cleared
+		players[player].linesCleared += rowsCleared;
+
+		//add the lines done and move up a level if needed
+		//even if you don't start on level 0, you still need the same number
+		//of points to reach the next level
+		players[player].linesClearedThisLevel += rowsCleared;
+		if (players[player].linesClearedThisLevel >= 10 && players[player].linesCleared >= (players[player].level + 1) * 10) {
+			players[player].linesClearedThisLevel %= 10;
+			++players[player].level;
+			setSpeed(player);
+			return EVENT_SPEED_CHANGED;
+		}
+
+		return 0;
+	}
+
+	private void createNewBlock(int player) {
+		//get the next block ready (set X, Y, shape, direction, etc.)
+
+		players[player].currentX = width / 2 - 1;		//seems to be more centered by subtracting 1
+		players[player].currentY = 0;
+		players[player].currentDirection = 0;
+		players[player].currentShape = players[player].nextShape;
+		++players[player].pieces;
+
+		//again, for that classic Tetris feel the pieces come from the NES version's RNG system
+		//(unless the randomizer's been changed), see Randomizer
+		players[player].nextShape = players[player].queue.take();
+	}
+
+	//D6
+	//1A
+
+	void cleanupClearedTiles(int player) {
+		//this function properly deletes the rows that have been set to 'clear'
+		//it used to shift everything above each cleared row down by one, a cell at a time
+		//(so a tetris moved the whole board four times), now it goes up from the bottom
+		//once and each row that's kept only gets moved once, straight to where it ends up
+
+		byte playfield[] = playfields[player];
+
+		//where the next kept row goes
+		int to = height - 2;
+
+		//the rows above the stack are empty and stay empty, so they don't need moving
+		//(the bitboard still has the cleared rows, so this is from before they went)
+		int top = boards[player].top;
+
+		//scan the rows up to the top of the stack, except the last which is the floor
+		for (int from = height - 2; from >= top; --from) {
+
+			//if the first (non wall) tile is clear on a given row, the entire row will be clear
+			if (playfield[from * width + 1] == TILE_CLEARED) {
+				continue;
+			}
+
+			//the walls are the same on every row, so the whole row can be copied
+			if (from != to) {
+				System.arraycopy(playfield, from * width, playfield, to * width, width);
+			}
+			--to;
+		}
+
+		//now clear the rows left at the top, except for the walls
+		for (int y = top; y <= to; ++y) {
+			Arrays.fill(playfield, y * width + 1, (y + 1) * width - 1, TILE_BLANK);
+		}
+
+		//the cleared rows are still full on the bitboard, so they go the same way
+		boards[player].removeFullRows();
+
+		if (players[player].lineClearEvent != null) {
+			players[player].lineClearEvent.commit();
+			players[player].lineClearEvent = null;
+		}
+	}
+
+	int moveBlockDown(int player) {
+		//check if the piece can fall
+		if (doesPieceFit(player, players[player].currentShape, players[player].currentDirection, players[player].currentX, players[player].currentY + 1)) {
+			++players[player].currentY;			//pre increment is better
+			return EVENT_MOVED;
+
+		}
+
+		//the piece is stuck
+		int events = EVENT_LOCKED;
+
+		//(only made when it's being recorded, so locking doesn't allocate)
+		TetrisEvents.PieceLocked lockEvent = null;
+		if (TetrisEvents.PIECE_LOCKED.isEnabled()) {
+			lockEvent = new TetrisEvents.PieceLocked();
+			lockEvent.begin();
+		}
+
+		//copy the block onto the playfield
+		boards[player].placePiece(players[player].currentShape, players[player].currentDirection, players[player].currentX, players[player].currentY);
+
+		//(only the 4 filled cells, straight out of the piece table)
+		int piece = PieceTable.pieceIndex(players[player].currentShape, players[player].currentDirection);
+		for (int cell = piece * 4; cell < piece * 4 + 4; ++cell) {
+			playfields[player][(players[player].currentY + PieceTable.cellY[cell]) * width + players[player].currentX + PieceTable.cellX[cell]] = (byte) players[player].currentShape;
+		}
+
+		//Now clear the lines
+
+		//For visual effect, lines will change symbols first, and then disappear
+		//To do this, we set the symbols here, and once the line clear delay is over they will disappear
+
+		//find new rows to clear
+		int linesCleared = 0;
+
+		//only check lines near the current piece
+		for (int y = players[player].currentY; (y < players[player].currentY + 4) && (y < height - 1); ++y) { //skip the final row, as it is the floor
+
+			//check if clear (there can't be any TILE_CLEARED rows left over, as they are
+			//removed before the next piece appears)
+			if (boards[player].isRowFull(y)) {
+				++linesCleared;
+				Arrays.fill(playfields[player], y * width + 1, (y + 1) * width - 1, TILE_CLEARED);
+			}
+		}
+
+		if (linesCleared != 0) {
+			events |= EVENT_LINES_CLEARED;
+		}
+
+		if (linesCleared != 0 && TetrisEvents.LINES_CLEARED.isEnabled()) {
+			//this one lasts until the rows are removed, so it shows how long the line clear holds the game up
+			TetrisEvents.LinesCleared clearEvent = new TetrisEvents.LinesCleared();
+			clearEvent.begin();
+			clearEvent.player = player;
+			clearEvent.lines = linesCleared;
+			clearEvent.level = players[player].level;
+			clearEvent.delayFrames = lookupDelay(lineClearDelays, player);
+			players[player].lineClearEvent = clearEvent;
+		}
+
+		//give a score based on number of lines cleared
+		events |= doScoring(player, linesCleared);
+
+		//if the playfield is almost full...
+		if (players[player].currentY < 6) {
+			//prevent it from falling for 1 unit of time
+			//to allow the player to actually move/rotate the piece before it lands
+			players[player].delayTileDropFromTop = true;
+
+		} else {
+			players[player].delayTileDropFromTop = false;
+		}
+
+		//(before the next piece might appear)
+		if (lockEvent != null) {
+			lockEvent.end();
+			if (lockEvent.shouldCommit()) {
+				lockEvent.player = player;
+				lockEvent.shape = players[player].currentShape;
+				lockEvent.x = players[player].currentX;
+				lockEvent.y = players[player].currentY;
+				lockEvent.commit();
+			}
+		}
+
+		//wait a bit before the next piece appears, so the player has a moment to get ready
+		//(e.g. release the down / up key), and flash any cleared lines first
+		if (linesCleared != 0) {
+			events |= startLineClear(player);
+		} else {
+			events |= startEntryDelay(player);
+		}
+
+		return events;
+	}
+
+	//the Y the current piece would land at if it was dropped straight down (for hard drop and the guide)
+	int landingY(int player) {
+		PlayerState p = players[player];
+		int piece = PieceTable.pieceIndex(p.currentShape, p.currentDirection);
+
+		//falling doesn't change where it lands, only moving sideways, rotating or the board changing does
+		if (piece != p.landingPiece || p.currentX != p.landingX || boards[player].version != p.landingVersion || p.currentY > p.landingY) {
+			p.landingY = p.currentY + boards[player].dropDistance(p.currentShape, p.currentDirection, p.currentX, p.currentY);
+			p.landingPiece = piece;
+			p.landingX = p.currentX;
+			p.landingVersion = boards[player].version;
+		}
+
+		return p.landingY;
+	}
+
+	boolean doesPieceFit(int player, int shape, int rotation, int posX, int posY) {
+		//the bitboard does this with a few ANDs instead of checking all 16 cells
+		return boards[player].doesPieceFit(shape, rotation, posX, posY);
+	}
+
+	//given an X and Y coordinate, it rotates it around a grid and returns the corrected value as an index into a 1D array
+	//it handles certain shapes differently in order to create a smoother gameplay experience
+	//see https://tetris.wiki/Super_Rotation_System
+	//(this is only used to build PieceTable now, everything else reads from that)
+	static int getRotatedIndex(int x, int y, int rotation, int shapeNumber) {
+
+		if (shapeNumber == TILE_O) {
+			//the square shape doesn't get rotated at all
+			return y * 4 + x;
+
+		} else if (shapeNumber == TILE_I) {
+			//tile I is the only 4x4 tile
+
+			//done as AND 3 instead of MOD 4 so we don't get negative numbers,
+			//as Java wants everything to be signed
+			switch (rotation & 3) {
+			case 0:
+				return (y * 4) + x;
+			case 1:
+				return 12 + y - (x * 4);
+			case 2:
+				return 15 - (y * 4) - x;
+			case 3:
+				return 3 - y + (x * 4);
+			}
+
+		} else {
+			//all other shapes are 3x3
+
+			//out of range, so we should return an index which has its bit cleared
+			//I've just picked bit 15 in for this purpose
+			//if this didn't happen, the maths below would be incorrect giving questionable indexes (like negatives)
+			if (x > 2 || y > 2) {
+				return 15;
+			}
+
+			//again, AND 3 instead of MOD 4 so we don't get negatives
+			switch (rotation & 3) {
+			case 0:
+				return (y * 3) + x;
+			case 1:
+				return 6 + y - (x * 3);
+			case 2:
+				return 8 - (y * 3) - x;
+			case 3:
+				return 2 - y + (x * 3);
+			}
+		}
+
+		return 0;
+
+	}
+
+}
@@ -0,0 +1,78 @@
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+// Events for the JDK Flight Recorder, so a live game can be profiled without slowing it down.
+// They cost next to nothing unless a recording is running, and none of them are even made
+// unless their type is enabled (see the EventTypes below), so playing doesn't allocate. Start one with
+// 'java -XX:StartFlightRecording=filename=tetris.jfr Tetris'
+// and look at it in JDK Mission Control, or with 'jfr print --events tetris.PieceLocked tetris.jfr'
+
+
+class TetrisEvents {
+
+	//for checking isEnabled() before making an event
+	static final EventType PIECE_LOCKED = EventType.getEventType(PieceLocked.class);
+	static final EventType LINES_CLEARED = EventType.getEventType(LinesCleared.class);
+	static final EventType FRAME_RENDERED = EventType.getEventType(FrameRendered.class);
+	static final EventType INPUT_HANDLED = EventType.getEventType(InputHandled.class);
+
+	@Name("tetris.PieceLocked")
+	@Label("Piece Locked")
+	@Category("Tetris")
+	@Description("A piece got stuck and was copied onto the playfield, including checking for full rows")
+	static class PieceLocked extends Event {
+		@Label("Player")
+		int player;
+
+		@Label("Shape")
+		int shape;
+
+		@Label("X")
+		int x;
+
+		@Label("Y")
+		int y;
+	}
+
+	@Name("tetris.LinesCleared")
+	@Label("Lines Cleared")
+	@Category("Tetris")
+	@Description("From when full rows are found until they are removed (the line clear delay)")
+	static class LinesCleared extends Event {
+		@Label("Player")
+		int player;
+
+		@Label("Lines")
+		int lines;
+
+		@Label("Level")
+		int level;
+
+		@Label("Delay Frames")
+		int delayFrames;
+	}
+
+	@Name("tetris.FrameRendered")
+	@Label("Frame Rendered")
+	@Category("Tetris")
+	@Description("Copying a frame that changed into the text box (or the picture, or the terminal)")
+	static class FrameRendered extends Event {
+		@Label("Changed Lines")
+		int changedLines;
+	}
+
+	@Name("tetris.InputHandled")
+	@Label("Input Handled")
+	@Category("Tetris")
+	@Description("A key press being handled (moves are picked up at the start of the next frame, see PlayerInput)")
+	static class InputHandled extends Event {
+		@Label("Key Code")
+		int keyCode;
+	}
+}
@@ -0,0 +1,269 @@
+
+import java.util.Arrays;
+
+
+// Draws the game as text into a frame buffer which is kept between frames.
+// redrawGame used to allocate a new char array and dozens of Strings every frame, and
+// then rewrite the whole text box. Now every frame is drawn over the top of the last one,
+// and only the lines which actually changed are marked as dirty, so the text box
+// only has to copy in (and repaint) those lines.
+// Nothing in here allocates after the constructor ('java EngineBenchmarks renderFrame' fails if it does),
+// and it doesn't use Swing either, so the same frame buffer could be sent anywhere.
+
+
+class TextRenderer {
+
+	//start with a couple of blank lines because you don't want it crammed in the top corner
+	static final int TOP_PADDING = 2;
+
+	static final int NUM_LINES = TOP_PADDING + TetrisEngine.PLAYFIELD_HEIGHT;
+
+	//where everything goes on each line
+	static final int PLAYFIELD_1_COLUMN = 4;											//a bit of padding
+	static final int HUD_1_COLUMN = PLAYFIELD_1_COLUMN + TetrisEngine.PLAYFIELD_WIDTH + 1;	//+ 1 for the column where the null character used to go
+	static final int PLAYFIELD_2_COLUMN = HUD_1_COLUMN + 30;							//the HUD is exactly 30 characters wide
+	static final int HUD_2_COLUMN = PLAYFIELD_2_COLUMN + TetrisEngine.PLAYFIELD_WIDTH + 1;
+	static final int LINE_WIDTH = HUD_2_COLUMN + 30;
+
+	//the same, for each player that fits across the screen
+	static final int PLAYFIELD_COLUMNS[] = {PLAYFIELD_1_COLUMN, PLAYFIELD_2_COLUMN};
+	static final int HUD_COLUMNS[] = {HUD_1_COLUMN, HUD_2_COLUMN};
+
+	static final int LINE_STRIDE = LINE_WIDTH + 1;		//+ 1 for the newline
+
+	//the next piece goes this far into the HUD, on its first two rows
+	static final int NEXT_PIECE_COLUMN = 11;
+	static final int NEXT_PIECE_ROW = 7;
+
+	//with a longer preview (TetrisEngine.preview), the pieces after it go along to the right, as many as fit in the HUD
+	static final int PREVIEW_STEP = 5;
+	static final int MAX_PREVIEW = (30 - NEXT_PIECE_COLUMN + 1) / PREVIEW_STEP;
+
+	//true for the characters which are tiles (the playfields and the next pieces), so other
+	//frontends can draw those as blocks, and everywhere else a letter is just a letter
+	static final boolean TILE_CELLS[] = new boolean[NUM_LINES * LINE_STRIDE];
+
+	static {
+		for (int y = 0; y < TetrisEngine.PLAYFIELD_HEIGHT; ++y) {
+			int line = (TOP_PADDING + y) * LINE_STRIDE;
+
+			for (int player = 0; player < PLAYFIELD_COLUMNS.length; ++player) {
+				Arrays.fill(TILE_CELLS, line + PLAYFIELD_COLUMNS[player], line + PLAYFIELD_COLUMNS[player] + TetrisEngine.PLAYFIELD_WIDTH, true);
+
+				if (y == NEXT_PIECE_ROW || y == NEXT_PIECE_ROW + 1) {
+					for (int i = 0; i < MAX_PREVIEW; ++i) {
+						int column = line + HUD_COLUMNS[player] + NEXT_PIECE_COLUMN + i * PREVIEW_STEP;
+						Arrays.fill(TILE_CELLS, column, column + 4, true);
+					}
+				}
+			}
+		}
+	}
+
+	//the frame as it should look, ready to be put straight into a text box
+	final char frame[] = new char[NUM_LINES * LINE_STRIDE];
+
+	//set for each line which is different to the last frame
+	final boolean dirty[] = new boolean[NUM_LINES];
+
+	//what the last frame looked like
+	private final char previous[] = new char[NUM_LINES * LINE_STRIDE];
+
+	private final TetrisEngine engine;
+
+	TextRenderer(TetrisEngine engine) {
+		//everything's laid out for the standard board
+		if (engine.width != TetrisEngine.PLAYFIELD_WIDTH || engine.height != TetrisEngine.PLAYFIELD_HEIGHT) {
+			throw new IllegalArgumentException("only the standard board can be drawn");
+		}
+
+		this.engine = engine;
+
+		//every line is padded out to the same length, so they never move around in the text box
+		Arrays.fill(frame, ' ');
+		for (int line = 0; line < NUM_LINES; ++line) {
+			frame[line * LINE_STRIDE + LINE_WIDTH] = '\n';
+		}
+
+		System.arraycopy(frame, 0, previous, 0, frame.length);
+	}
+
+	//draws the current state of the game into the frame
+	//returns true if anything changed since the last time
+	boolean render() {
+		int gameState = engine.gameState;
+		boolean hidePieces = gameState == TetrisEngine.GAME_STATE_PAUSED || gameState == TetrisEngine.GAME_STATE_ASK_RESTART;
+
+		//only the first two players fit on the screen
+		int shown = Math.min(engine.numPlayers, PLAYFIELD_COLUMNS.length);
+
+		for (int y = 0; y < TetrisEngine.PLAYFIELD_HEIGHT; ++y) {
+			int line = (TOP_PADDING + y) * LINE_STRIDE;
+
+			for (int player = 0; player < shown; ++player) {
+				drawPlayfieldRow(player, y, line + PLAYFIELD_COLUMNS[player], hidePieces);
+				drawHud(player, y, line + HUD_COLUMNS[player]);
+			}
+
+			if (shown < PLAYFIELD_COLUMNS.length) {
+				Arrays.fill(frame, line + PLAYFIELD_COLUMNS[shown], line + LINE_WIDTH, ' ');
+			}
+		}
+
+		//the guide and current piece are drawn over the top of the playfields
+		//(the guide first, so the piece will override it if needed)
+		if (!hidePieces) {
+			for (int player = 0; player < shown; ++player) {
+				drawPiece(player, PLAYFIELD_COLUMNS[player]);
+			}
+		}
+
+		//now see which lines changed
+		boolean changed = false;
+		for (int line = 0; line < NUM_LINES; ++line) {
+			int start = line * LINE_STRIDE;
+
+			dirty[line] = !Arrays.equals(frame, start, start + LINE_WIDTH, previous, start, start + LINE_WIDTH);
+			if (dirty[line]) {
+				System.arraycopy(frame, start, previous, start, LINE_WIDTH);
+				changed = true;
+			}
+		}
+
+		return changed;
+	}
+
+	private void drawPlayfieldRow(int player, int y, int pos, boolean hidePieces) {
+		byte playfield[] = engine.playfields[player];
+		int index = y * TetrisEngine.PLAYFIELD_WIDTH;
+
+		for (int x = 0; x < TetrisEngine.PLAYFIELD_WIDTH; ++x, ++index) {
+			byte tile = playfield[index];
+
+			if (tile == TetrisEngine.TILE_WALL) {
+				frame[pos + x] = '#';
+
+			} else if (tile == TetrisEngine.TILE_CLEARED) {
+				frame[pos + x] = '=';
+
+			} else if (tile == TetrisEngine.TILE_BLANK || hidePieces) {		//don't display when paused
+				frame[pos + x] = ' ';
+
+			} else {
+				frame[pos + x] = (char) ('A' + tile);		//convert shape number to displayable character
+			}
+		}
+
+		frame[pos + TetrisEngine.PLAYFIELD_WIDTH] = ' ';
+	}
+
+	private void drawPiece(int player, int pos) {
+		//there's no piece during the delays after one locks
+		if (!engine.isPieceActive(player)) {
+			return;
+		}
+
+		TetrisEngine.PlayerState p = engine.players[player];
+		int piece = PieceTable.pieceIndex(p.currentShape, p.currentDirection);
+
+		//display a guide if needed (not that there's a way to disable it yet...)
+		if (p.displayGuide) {
+			//figure out where the piece will land
+			//(rotation, X and shape will be the same as the current shape, and the engine keeps it until the piece moves)
+			int guideY = engine.landingY(player);
+
+			for (int cell = piece * 4; cell < piece * 4 + 4; ++cell) {
+				frame[(TOP_PADDING + guideY + PieceTable.cellY[cell]) * LINE_STRIDE + pos + p.currentX + PieceTable.cellX[cell]] = '.';
+			}
+		}
+
+		for (int cell = piece * 4; cell < piece * 4 + 4; ++cell) {
+			frame[(TOP_PADDING + p.currentY + PieceTable.cellY[cell]) * LINE_STRIDE + pos + p.currentX + PieceTable.cellX[cell]] = (char) ('a' + p.currentShape);
+		}
+	}
+
+	//draws the score, next piece, etc. to the right of a playfield
+	//this always fills in exactly 30 characters
+	private void drawHud(int player, int y, int pos) {
+		TetrisEngine.PlayerState p = engine.players[player];
+
+		Arrays.fill(frame, pos, pos + 30, ' ');
+
+		if (y == 0) {
+			drawLabelledNumber("    Score: ", p.score, pos);
+
+		} else if (y == 1) {
+			drawLabelledNumber("    Top  : ", p.top, pos);
+
+		} else if (y == 3) {
+			drawLabelledNumber("    Lines: ", p.linesCleared, pos);
+
+		} else if (y == 5) {
+			drawLabelledNumber("    Level: ", p.level, pos);
+
+		} else if (y == NEXT_PIECE_ROW || y == NEXT_PIECE_ROW + 1) {		//the first two rows of the next tile
+			if (y == NEXT_PIECE_ROW) {
+				drawText("    Next : ", pos);
+			}
+
+			//We ignore rotation (set to zero), because we don't want it to be rotated as the player
+			//rotates the current tile. Only the first 2 rows are needed, as without rotation only two rows are used
+			int shown = Math.max(1, Math.min(engine.preview, MAX_PREVIEW));
+			for (int i = 0; i < shown; ++i) {
+				int shape = engine.upcoming(player, i);
+				int column = pos + NEXT_PIECE_COLUMN + i * PREVIEW_STEP;
+
+				int mask = PieceTable.rowMasks[PieceTable.pieceIndex(shape, 0)][y - NEXT_PIECE_ROW];
+				for (int x = 0; x < 4; ++x) {
+					if (((mask >> x) & 1) == 1) {
+						frame[column + x] = (char) ('A' + shape);
+					}
+				}
+			}
+
+		} else if (y == 10 && player == TetrisEngine.PLAYER_1) {		//gameplay messages
+			int gameState = engine.gameState;
+
+			if 		(gameState == TetrisEngine.GAME_STATE_GAMEOVER && engine.numPlayers == 1) 	drawText("    GAME OVER", pos);
+			else if (gameState == TetrisEngine.GAME_STATE_PAUSED) 							drawText("    PAUSED", pos);
+			else if (gameState == TetrisEngine.GAME_STATE_ASK_RESTART)						drawText("    Press R to restart.", pos);
+			else if (gameState == TetrisEngine.GAME_STATE_GAMEOVER && engine.players[TetrisEngine.PLAYER_1].lost)	drawText("    PLAYER TWO WINS", pos);
+			else if (gameState == TetrisEngine.GAME_STATE_GAMEOVER && engine.players[TetrisEngine.PLAYER_2].lost)	drawText("    PLAYER ONE WINS", pos);
+
+		} else if (y == 12 && player == TetrisEngine.PLAYER_1) {		//more gameplay messages
+			int gameState = engine.gameState;
+
+			if 		(gameState == TetrisEngine.GAME_STATE_GAMEOVER) 		drawText("    Press ENTER to restart.", pos);
+			else if (gameState == TetrisEngine.GAME_STATE_PAUSED) 		drawText("    Press ENTER to resume.", pos);
+			else if (gameState == TetrisEngine.GAME_STATE_TITLE) 		drawText("    Press ENTER to start.", pos);
+			else if (gameState == TetrisEngine.GAME_STATE_ASK_RESTART)	drawText("    Press ENTER to resume.", pos);
+		}
+	}
+
+	//String.getChars copies straight into the frame, so this doesn't allocate
+	private void drawText(String text, int pos) {
+		text.getChars(0, text.length(), frame, pos);
+	}
+
+	private void drawLabelledNumber(String label, int value, int pos) {
+		drawText(label, pos);
+		pos += label.length();
+
+		//count the digits first, so they can be written in from the right
+		//(Integer.toString would need a new String every time)
+		int digits = 1;
+		for (int v = value / 10; v != 0; v /= 10) {
+			++digits;
+		}
+
+		if (value < 0) {
+			frame[pos++] = '-';
+		}
+
+		for (int i = digits - 1; i >= 0; --i) {
+			frame[pos + i] = (char) ('0' + Math.abs(value % 10));
+			value /= 10;
+		}
+	}
+
+}
@@ -0,0 +1,110 @@
+
+// Remembers scores the bot has already worked out, by the board's hash (see Zobrist),
+// so the same board reached a different way doesn't get searched again.
+// e.g. an O piece is the same in all 4 rotations, I, S and Z in 2, and placing two pieces
+// of the same shape gives the same boards whichever one goes first.
+//
+// It's a fixed size and made up front: parallel arrays of keys and values (no objects per entry),
+// with every key going in one bucket of BUCKET_SIZE slots next to each other. When a bucket is
+// full something has to go, and it's the one that was the least work to find (the lowest depth),
+// as that's the cheapest to work out again. Slots from an older search count as empty, so
+// starting a new search is just adding 1 to 'search' instead of clearing the arrays.
+
+
+class TranspositionTable {
+
+	static final int BUCKET_SIZE = 2;
+
+	private final long keys[];
+	private final double values[];
+	private final byte depths[];
+	private final int searches[];		//which search each slot was stored in
+	private final int mask;				//for the index of a bucket's first slot
+
+	private int search = 1;				//0 is never used, so the empty slots are from an old search
+
+	//for working out the hit rate
+	long lookups = 0;
+	long hits = 0;
+	long stores = 0;
+	long replaced = 0;					//stores that pushed out something from the same search
+
+	//'capacity' is rounded up to a power of 2
+	TranspositionTable(int capacity) {
+		int size = Math.max(BUCKET_SIZE, Integer.highestOneBit(capacity - 1) << 1);
+
+		keys = new long[size];
+		values = new double[size];
+		depths = new byte[size];
+		searches = new int[size];
+		mask = (size - 1) & ~(BUCKET_SIZE - 1);
+	}
+
+	//forgets everything stored so far
+	void newSearch() {
+		++search;
+	}
+
+	//the slot with this key in it, or -1 if it's not there
+	int find(long key) {
+		++lookups;
+
+		int bucket = bucket(key);
+		for (int slot = bucket; slot < bucket + BUCKET_SIZE; ++slot) {
+			if (keys[slot] == key && searches[slot] == search) {
+				++hits;
+				return slot;
+			}
+		}
+
+		return -1;
+	}
+
+	double value(int slot) {
+		return values[slot];
+	}
+
+	void store(long key, double value, int depth) {
+		++stores;
+
+		int bucket = bucket(key);
+		int slot = bucket;
+
+		for (int i = bucket; i < bucket + BUCKET_SIZE; ++i) {
+			//already there (or an old one), so it goes here
+			if (searches[i] != search || keys[i] == key) {
+				slot = i;
+				break;
+			}
+
+			if (depths[i] < depths[slot]) {
+				slot = i;
+			}
+		}
+
+		if (searches[slot] == search && keys[slot] != key) {
+			++replaced;
+		}
+
+		keys[slot] = key;
+		values[slot] = value;
+		depths[slot] = (byte) depth;
+		searches[slot] = search;
+	}
+
+	//the top bits of the key are the most random after multiplying, so they pick the bucket
+	private int bucket(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+	}
+
+	double hitRate() {
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	void resetCounts() {
+		lookups = 0;
+		hits = 0;
+		stores = 0;
+		replaced = 0;
+	}
+}
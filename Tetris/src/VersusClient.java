@@ -0,0 +1,225 @@
+
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+
+// One player's connection to a VersusServer.
+// Inputs go up to the server, and whatever the server sends back is copied into
+// a local TetrisEngine which is never ticked, so TextRenderer can draw it like any other game.
+// The server decides everything, so the local copy is only ever what the server last said.
+//
+// Each input has a sequence number which the server sends back once it has been applied,
+// so the time it took (the round trip) is measured as well
+
+
+class VersusClient {
+
+	//how many inputs can be waiting for an acknowledgement at once
+	static final int MAX_IN_FLIGHT = 256;
+
+	final TetrisEngine engine;			//the local copy of the game
+
+	private final SocketChannel channel;
+	private final ByteBuffer in = ByteBuffer.allocate(VersusProtocol.BUFFER_SIZE);
+	private final ByteBuffer out = ByteBuffer.allocate(VersusProtocol.BUFFER_SIZE);
+
+	int player = -1;					//which player this is, set when the server says hello
+
+	private int nextSequence = 0;
+	private final long sendTimes[] = new long[MAX_IN_FLIGHT];
+
+	//the last input the server acknowledged, and how long it took
+	int lastAcknowledged = -1;
+	long lastRoundTrip = 0;
+
+	long bytesReceived = 0;
+
+	VersusClient(TetrisEngine engine, String host, int port) throws IOException {
+		this.engine = engine;
+
+		channel = SocketChannel.open(new InetSocketAddress(host, port));
+		channel.socket().setTcpNoDelay(true);
+		channel.configureBlocking(false);
+	}
+
+	//sends one of the TetrisEngine.INPUT_XXX inputs, and returns its sequence number
+	int sendInput(int input) throws IOException {
+		//if the inputs have built up that much, the server isn't reading them, so give up on it
+		//like the server does with a client (poll() then finds the connection closed)
+		if (out.remaining() < VersusProtocol.MESSAGE_SIZES[VersusProtocol.MSG_INPUT]) {
+			channel.close();
+			throw new IOException("the server isn't taking the inputs");
+		}
+
+		int sequence = nextSequence++;
+		sendTimes[sequence & (MAX_IN_FLIGHT - 1)] = System.nanoTime();
+
+		out.put((byte) VersusProtocol.MSG_INPUT);
+		out.put((byte) input);
+		out.putInt(sequence);
+
+		out.flip();
+		channel.write(out);
+		out.compact();
+
+		return sequence;
+	}
+
+	//reads whatever the server has sent, and copies it into the engine
+	//returns the number of messages handled (-1 if the server went away)
+	int poll() throws IOException {
+		//anything that didn't fit in the socket last time
+		if (out.position() != 0) {
+			out.flip();
+			channel.write(out);
+			out.compact();
+		}
+
+		int count = channel.read(in);
+		if (count == -1) {
+			return -1;
+		}
+		bytesReceived += count;
+
+		in.flip();
+		int messages = 0;
+
+		while (in.remaining() >= 1) {
+			int size = VersusProtocol.messageSize(in, in.position());
+			if (size == 0) {
+				throw new IOException("unknown message from the server");
+			}
+			if (in.remaining() < size) {
+				break;
+			}
+
+			handleMessage();
+			++messages;
+		}
+
+		in.compact();
+		return messages;
+	}
+
+	private void handleMessage() {
+		int type = in.get();
+
+		switch (type) {
+		case VersusProtocol.MSG_WELCOME:
+		{
+			player = in.get() & 0xFF;
+			int numPlayers = in.get() & 0xFF;
+			long seed = in.getLong();
+
+			//only as many players as the local engine has room for get copied
+			engine.numPlayers = Math.min(numPlayers, engine.players.length);
+			engine.setStartLevel(0);
+			engine.startGame(seed);
+
+			//the server only sends the next piece, not the rest of the queue
+			engine.preview = 1;
+			break;
+		}
+
+		case VersusProtocol.MSG_ACK:
+		{
+			int sequence = in.getInt();
+			in.getInt();		//the frame it happened on
+
+			lastAcknowledged = sequence;
+			lastRoundTrip = System.nanoTime() - sendTimes[sequence & (MAX_IN_FLIGHT - 1)];
+			break;
+		}
+
+		case VersusProtocol.MSG_STATE:
+			engine.gameState = in.get();
+			break;
+
+		case VersusProtocol.MSG_PIECE:
+		{
+			int p = in.get() & 0xFF;
+			int shape = in.get();
+			int rotation = in.get();
+			int x = in.get();
+			int y = in.get();
+			int next = in.get();
+			int phase = in.get();
+
+			if (p < engine.numPlayers) {
+				TetrisEngine.PlayerState state = engine.players[p];
+				state.currentShape = shape;
+				state.currentDirection = rotation;
+				state.currentX = x;
+				state.currentY = y;
+				state.nextShape = next;
+				state.phase = phase;
+			}
+			break;
+		}
+
+		case VersusProtocol.MSG_ROW:
+		{
+			int p = in.get() & 0xFF;
+			int y = in.get();
+
+			if (p < engine.numPlayers) {
+				//the bitboard is kept up to date as well, as the renderer uses it for the guide
+				long row = 0;
+				int start = y * TetrisEngine.PLAYFIELD_WIDTH + 1;
+
+				for (int x = 0; x < VersusProtocol.ROW_TILES; ++x) {
+					byte tile = in.get();
+					engine.playfields[p][start + x] = tile;
+
+					if (tile != TetrisEngine.TILE_BLANK) {
+						row |= BitBoard.bit(x + 1);
+					}
+				}
+
+				engine.boards[p].rows[y] = row;
+				engine.boards[p].updateColumns();
+
+			} else {
+				in.position(in.position() + VersusProtocol.ROW_TILES);
+			}
+			break;
+		}
+
+		case VersusProtocol.MSG_STATS:
+		{
+			int p = in.get() & 0xFF;
+			int score = in.getInt();
+			int lines = in.getInt();
+			int level = in.get() & 0xFF;
+			boolean lost = in.get() != 0;
+
+			if (p < engine.numPlayers) {
+				engine.players[p].score = score;
+				engine.players[p].linesCleared = lines;
+				engine.players[p].level = level;
+				engine.players[p].lost = lost;
+			}
+			break;
+		}
+
+		case VersusProtocol.MSG_SPEED:
+		{
+			int p = in.get() & 0xFF;
+			int frames = in.get() & 0xFF;
+
+			if (p < engine.numPlayers) {
+				engine.players[p].gravityFrames = frames;
+			}
+			break;
+		}
+		}
+	}
+
+	void close() throws IOException {
+		channel.close();
+	}
+}
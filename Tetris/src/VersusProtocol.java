@@ -0,0 +1,64 @@
+
+import java.nio.ByteBuffer;
+
+
+// The messages sent between VersusServer and VersusClient.
+// Every message starts with a type byte, and each type is always the same size
+// (see MESSAGE_SIZES), so there's no need for lengths.
+//
+// Client to server:
+//	 MSG_INPUT		input (1), sequence number (4)
+//
+// Server to client:
+//	 MSG_WELCOME	your player number (1), number of players (1), seed (8)
+//	 MSG_ACK		sequence number (4), frame it was applied on (4)
+//	 MSG_STATE		game state (1)
+//	 MSG_PIECE		player (1), shape (1), rotation (1), x (1), y (1), next shape (1), phase (1)
+//	 MSG_ROW		player (1), y (1), the tiles inside the walls (PLAYFIELD_WIDTH - 2)
+//	 MSG_STATS		player (1), score (4), lines (4), level (1), lost (1)
+//	 MSG_SPEED		player (1), gravity frames (1)
+//
+// The server only sends what changed since the last time, so most frames are just
+// a MSG_PIECE when gravity moves a piece. Numbers are big endian (ByteBuffer's default)
+
+
+class VersusProtocol {
+
+	static final int DEFAULT_PORT = 7654;
+
+	//client to server
+	static final int MSG_INPUT = 1;
+
+	//server to client
+	static final int MSG_WELCOME = 2;
+	static final int MSG_ACK = 3;
+	static final int MSG_STATE = 4;
+	static final int MSG_PIECE = 5;
+	static final int MSG_ROW = 6;
+	static final int MSG_STATS = 7;
+	static final int MSG_SPEED = 8;
+
+	static final int ROW_TILES = TetrisEngine.PLAYFIELD_WIDTH - 2;
+
+	//the size of each message, including the type byte (0 for types that don't exist)
+	static final int MESSAGE_SIZES[] = {
+		0,
+		1 + 1 + 4,					//MSG_INPUT
+		1 + 1 + 1 + 8,				//MSG_WELCOME
+		1 + 4 + 4,					//MSG_ACK
+		1 + 1,						//MSG_STATE
+		1 + 7,						//MSG_PIECE
+		1 + 2 + ROW_TILES,			//MSG_ROW
+		1 + 1 + 4 + 4 + 1 + 1,		//MSG_STATS
+		1 + 1 + 1,					//MSG_SPEED
+	};
+
+	//the size of a message starting at 'position', or 0 if the type is unknown
+	static int messageSize(ByteBuffer buffer, int position) {
+		int type = buffer.get(position) & 0xFF;
+		return type < MESSAGE_SIZES.length ? MESSAGE_SIZES[type] : 0;
+	}
+
+	//how long a server or client will let unsent data build up before giving up on the connection
+	static final int BUFFER_SIZE = 64 * 1024;
+}
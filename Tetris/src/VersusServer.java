@@ -0,0 +1,474 @@
+
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+
+// Runs a versus game over the network, where every player is a VersusClient.
+// The server has the only real TetrisEngine: clients just send their inputs, which are
+// applied as soon as they arrive (like a key press in the window), and the server runs
+// the frames at the NES frame rate. After each frame (or input) it sends everyone the
+// parts of the game which changed, including the opponent's speed when someone
+// levels up. See VersusProtocol for the messages.
+//
+// Everything runs on one thread with a non-blocking Selector, so there's no locking.
+//
+// Run with 'java VersusServer [port] [players]', then start each player with
+// 'java -Dtetris.connect=<host>:<port> Tetris'
+
+
+class VersusServer implements Runnable {
+
+	//how long to wait after a game is over before starting another one
+	static final int RESTART_FRAMES = 300;
+
+	private final int numPlayers;
+	final TetrisEngine engine;
+
+	private final Selector selector;
+	private final ServerSocketChannel serverChannel;
+
+	//one for each player, null until they connect (or after they leave)
+	private final SocketChannel clients[];
+	private final ByteBuffer inBuffers[];
+	private final ByteBuffer outBuffers[];
+	private int connected = 0;
+
+	//the most one frame's changes can take (every player's rows, piece, stats and speed, and the state).
+	//There's this much room in each out buffer on top of VersusProtocol.BUFFER_SIZE, so however many
+	//players there are, a frame's changes always fit as long as a client's keeping up
+	private final int frameSize;
+
+	//what the clients have been sent so far, so only changes get sent
+	private final byte sentPlayfields[][];
+	private final int sentPieces[][];			//shape, rotation, x, y, next shape, phase
+	private final int sentStats[][];			//score, lines, level, lost
+	private final int sentSpeeds[];
+	private int sentGameState = -1;
+
+	private Thread thread = null;
+	private volatile boolean running = false;
+
+	private final Random seeds = new Random();
+	private long gameOverFrame = -1;
+	private long framesRun = 0;
+
+	VersusServer(int port, int numPlayers) throws IOException {
+		this.numPlayers = numPlayers;
+
+		engine = new TetrisEngine(numPlayers);
+		engine.numPlayers = numPlayers;
+
+		clients = new SocketChannel[numPlayers];
+		inBuffers = new ByteBuffer[numPlayers];
+		outBuffers = new ByteBuffer[numPlayers];
+		frameSize = (VersusProtocol.MESSAGE_SIZES[VersusProtocol.MSG_ROW] * TetrisEngine.PLAYFIELD_HEIGHT + VersusProtocol.MESSAGE_SIZES[VersusProtocol.MSG_PIECE] +
+				VersusProtocol.MESSAGE_SIZES[VersusProtocol.MSG_STATS] + VersusProtocol.MESSAGE_SIZES[VersusProtocol.MSG_SPEED]) * numPlayers +
+				VersusProtocol.MESSAGE_SIZES[VersusProtocol.MSG_STATE];
+
+		sentPlayfields = new byte[numPlayers][TetrisEngine.PLAYFIELD_HEIGHT * TetrisEngine.PLAYFIELD_WIDTH];
+		sentPieces = new int[numPlayers][6];
+		sentStats = new int[numPlayers][4];
+		sentSpeeds = new int[numPlayers];
+
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	//the port actually being used (useful when it was created with port 0)
+	int port() throws IOException {
+		return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+	}
+
+	void start() {
+		running = true;
+		thread = new Thread(this, "Tetris versus server");
+		thread.start();
+	}
+
+	void stop() throws InterruptedException {
+		running = false;
+		selector.wakeup();
+		thread.join();
+	}
+
+	public void run() {
+		long nextFrame = System.nanoTime() + GameLoop.FRAME_NANOS;
+
+		try {
+			while (running) {
+				//wait for network traffic, or until it's time for the next frame
+				long wait = nextFrame - System.nanoTime();
+				if (wait >= 1000000L) {
+					selector.select(wait / 1000000L);
+				} else {
+					selector.selectNow();
+				}
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					if (!key.isValid()) {
+						continue;
+					}
+
+					if (key.isAcceptable()) {
+						accept();
+
+					} else {
+						int player = (Integer) key.attachment();
+
+						if (key.isReadable()) {
+							read(player);
+						}
+						if (key.isValid() && key.isWritable()) {
+							flush(player);
+						}
+					}
+				}
+
+				//run every frame that's due (if the server fell a long way behind, skip ahead)
+				int frames = 0;
+				while (System.nanoTime() - nextFrame >= 0) {
+					nextFrame += GameLoop.FRAME_NANOS;
+					frame();
+
+					if (++frames == GameLoop.MAX_CATCH_UP_FRAMES) {
+						nextFrame = System.nanoTime() + GameLoop.FRAME_NANOS;
+						break;
+					}
+				}
+
+				if (frames != 0) {
+					sendChanges();
+				}
+			}
+
+		} catch (IOException ex) {
+			System.out.printf("Versus server stopped: %s\n", ex.getMessage());
+		}
+
+		try {
+			for (int i = 0; i < numPlayers; ++i) {
+				disconnect(i);
+			}
+			serverChannel.close();
+			selector.close();
+		} catch (IOException ex) {
+			//nothing else can be done
+		}
+	}
+
+	private void frame() throws IOException {
+		++framesRun;
+
+		if (engine.gameState == TetrisEngine.GAME_STATE_RUNNING) {
+			engine.tick();
+
+			if (engine.isGameOver()) {
+				gameOverFrame = framesRun;
+			}
+
+		} else if (engine.isGameOver() && framesRun - gameOverFrame >= RESTART_FRAMES && connected == numPlayers) {
+			startGame();
+		}
+	}
+
+	private void startGame() throws IOException {
+		engine.startGame(seeds.nextLong());
+
+		//tell everyone which player they are, then send the whole game
+		for (int i = 0; i < numPlayers; ++i) {
+			welcome(i);
+		}
+
+		forgetSent();
+		sendChanges();
+	}
+
+	private void welcome(int player) {
+		ByteBuffer out = outBuffers[player];
+		if (out != null && out.remaining() >= VersusProtocol.MESSAGE_SIZES[VersusProtocol.MSG_WELCOME]) {
+			out.put((byte) VersusProtocol.MSG_WELCOME);
+			out.put((byte) player);
+			out.put((byte) numPlayers);
+			out.putLong(engine.seed);
+		}
+	}
+
+	//makes the next sendChanges send everything
+	private void forgetSent() {
+		for (int i = 0; i < numPlayers; ++i) {
+			Arrays.fill(sentPlayfields[i], (byte) -1);
+			Arrays.fill(sentPieces[i], Integer.MIN_VALUE);
+			Arrays.fill(sentStats[i], Integer.MIN_VALUE);
+			sentSpeeds[i] = -1;
+		}
+		sentGameState = -1;
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+
+		//find a free player slot
+		int player = -1;
+		for (int i = 0; i < numPlayers; ++i) {
+			if (clients[i] == null) {
+				player = i;
+				break;
+			}
+		}
+
+		if (player == -1) {
+			channel.close();
+			return;
+		}
+
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);		//the messages are tiny, so don't wait to batch them up
+		channel.register(selector, SelectionKey.OP_READ, player);
+
+		clients[player] = channel;
+		inBuffers[player] = ByteBuffer.allocate(VersusProtocol.BUFFER_SIZE);
+		outBuffers[player] = ByteBuffer.allocate(VersusProtocol.BUFFER_SIZE + frameSize);
+		++connected;
+
+		//everyone's here, so off we go
+		if (connected == numPlayers && engine.gameState == TetrisEngine.GAME_STATE_TITLE) {
+			startGame();
+
+		} else if (engine.gameState != TetrisEngine.GAME_STATE_TITLE) {
+			//someone coming back to a game that's already going needs to be told everything
+			welcome(player);
+			forgetSent();
+		}
+	}
+
+	private void disconnect(int player) throws IOException {
+		if (clients[player] == null) {
+			return;
+		}
+
+		clients[player].close();
+		clients[player] = null;
+		inBuffers[player] = null;
+		outBuffers[player] = null;
+		--connected;
+	}
+
+	private void read(int player) throws IOException {
+		ByteBuffer in = inBuffers[player];
+
+		int count;
+		try {
+			count = clients[player].read(in);
+		} catch (IOException ex) {
+			count = -1;
+		}
+
+		if (count == -1) {
+			disconnect(player);
+			return;
+		}
+
+		//handle every complete message
+		in.flip();
+		boolean changed = false;
+
+		while (in.remaining() >= 1) {
+			int size = VersusProtocol.messageSize(in, in.position());
+
+			//only inputs are allowed from clients, anything else means something is very wrong
+			if (in.get(in.position()) != VersusProtocol.MSG_INPUT) {
+				disconnect(player);
+				return;
+			}
+
+			if (in.remaining() < size) {
+				break;
+			}
+
+			in.get();
+			int input = in.get();
+			int sequence = in.getInt();
+
+			if (input >= TetrisEngine.INPUT_LEFT && input <= TetrisEngine.INPUT_RELEASE_DROP) {
+				changed |= engine.step(player, input) != 0;
+			}
+
+			ByteBuffer out = outBuffers[player];
+			if (out.remaining() >= VersusProtocol.MESSAGE_SIZES[VersusProtocol.MSG_ACK]) {
+				out.put((byte) VersusProtocol.MSG_ACK);
+				out.putInt(sequence);
+				out.putInt((int) engine.frame);
+			}
+		}
+
+		in.compact();
+
+		//send the result straight away, so the player doesn't have to wait for the next frame to see it
+		if (changed) {
+			sendChanges();
+		} else {
+			flush(player);
+		}
+	}
+
+	//sends everyone whatever has changed since last time
+	private void sendChanges() throws IOException {
+		if (engine.gameState != sentGameState) {
+			sentGameState = engine.gameState;
+
+			for (int i = 0; i < numPlayers; ++i) {
+				if (outBuffers[i] != null && outBuffers[i].remaining() >= 2) {
+					outBuffers[i].put((byte) VersusProtocol.MSG_STATE);
+					outBuffers[i].put((byte) engine.gameState);
+				}
+			}
+		}
+
+		for (int player = 0; player < numPlayers; ++player) {
+			sendPlayerChanges(player);
+		}
+
+		for (int i = 0; i < numPlayers; ++i) {
+			flush(i);
+		}
+	}
+
+	private void sendPlayerChanges(int player) {
+		TetrisEngine.PlayerState p = engine.players[player];
+		byte playfield[] = engine.playfields[player];
+
+		//any rows that changed
+		for (int y = 0; y < TetrisEngine.PLAYFIELD_HEIGHT - 1; ++y) {
+			int start = y * TetrisEngine.PLAYFIELD_WIDTH + 1;
+
+			if (!Arrays.equals(playfield, start, start + VersusProtocol.ROW_TILES, sentPlayfields[player], start, start + VersusProtocol.ROW_TILES)) {
+				System.arraycopy(playfield, start, sentPlayfields[player], start, VersusProtocol.ROW_TILES);
+
+				for (int i = 0; i < numPlayers; ++i) {
+					ByteBuffer out = outBuffers[i];
+					if (out != null && out.remaining() >= VersusProtocol.MESSAGE_SIZES[VersusProtocol.MSG_ROW]) {
+						out.put((byte) VersusProtocol.MSG_ROW);
+						out.put((byte) player);
+						out.put((byte) y);
+						out.put(playfield, start, VersusProtocol.ROW_TILES);
+					}
+				}
+			}
+		}
+
+		//the piece
+		int sent[] = sentPieces[player];
+		if (sent[0] != p.currentShape || sent[1] != (p.currentDirection & 3) || sent[2] != p.currentX ||
+				sent[3] != p.currentY || sent[4] != p.nextShape || sent[5] != p.phase) {
+			sent[0] = p.currentShape;
+			sent[1] = p.currentDirection & 3;
+			sent[2] = p.currentX;
+			sent[3] = p.currentY;
+			sent[4] = p.nextShape;
+			sent[5] = p.phase;
+
+			for (int i = 0; i < numPlayers; ++i) {
+				ByteBuffer out = outBuffers[i];
+				if (out != null && out.remaining() >= VersusProtocol.MESSAGE_SIZES[VersusProtocol.MSG_PIECE]) {
+					out.put((byte) VersusProtocol.MSG_PIECE);
+					out.put((byte) player);
+					for (int value : sent) {
+						out.put((byte) value);
+					}
+				}
+			}
+		}
+
+		//score and so on
+		int stats[] = sentStats[player];
+		if (stats[0] != p.score || stats[1] != p.linesCleared || stats[2] != p.level || stats[3] != (p.lost ? 1 : 0)) {
+			stats[0] = p.score;
+			stats[1] = p.linesCleared;
+			stats[2] = p.level;
+			stats[3] = p.lost ? 1 : 0;
+
+			for (int i = 0; i < numPlayers; ++i) {
+				ByteBuffer out = outBuffers[i];
+				if (out != null && out.remaining() >= VersusProtocol.MESSAGE_SIZES[VersusProtocol.MSG_STATS]) {
+					out.put((byte) VersusProtocol.MSG_STATS);
+					out.put((byte) player);
+					out.putInt(p.score);
+					out.putInt(p.linesCleared);
+					out.put((byte) p.level);
+					out.put((byte) stats[3]);
+				}
+			}
+		}
+
+		//speed (which the opponent sets when they level up)
+		if (sentSpeeds[player] != p.gravityFrames) {
+			sentSpeeds[player] = p.gravityFrames;
+
+			for (int i = 0; i < numPlayers; ++i) {
+				ByteBuffer out = outBuffers[i];
+				if (out != null && out.remaining() >= VersusProtocol.MESSAGE_SIZES[VersusProtocol.MSG_SPEED]) {
+					out.put((byte) VersusProtocol.MSG_SPEED);
+					out.put((byte) player);
+					out.put((byte) p.gravityFrames);
+				}
+			}
+		}
+	}
+
+	//writes as much as the socket will take, and waits for it to be writable if there's more
+	private void flush(int player) throws IOException {
+		SocketChannel channel = clients[player];
+		ByteBuffer out = outBuffers[player];
+		if (channel == null || out.position() == 0) {
+			return;
+		}
+
+		out.flip();
+		try {
+			channel.write(out);
+		} catch (IOException ex) {
+			disconnect(player);
+			return;
+		}
+		out.compact();
+
+		//if more than BUFFER_SIZE is waiting, they're not keeping up, and the next frame's changes
+		//might not fit (which would leave them out of sync), so let them go
+		if (out.remaining() < frameSize) {
+			disconnect(player);
+			return;
+		}
+
+		channel.keyFor(selector).interestOps(out.position() == 0 ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : VersusProtocol.DEFAULT_PORT;
+		int players = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+		VersusServer server = new VersusServer(port, players);
+		System.out.printf("Waiting for %d players on port %d\n", players, server.port());
+		server.run();
+	}
+}
@@ -0,0 +1,242 @@
+
+import java.util.Arrays;
+import java.util.Random;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+// Finds better weights for WeightedEvaluator with a genetic algorithm
+// (the same one Yiyuan Lee used for the default weights).
+// Every generation, each set of weights plays a number of games with AutoPlayer,
+// and its fitness is the total lines cleared. The best ones are bred together
+// (with the odd mutation) to replace the worst.
+//
+// The games are spread over every core with a fork/join pool, with each set of weights' games
+// as one task. A task makes one engine and one bot and plays all of its games with them, so
+// playing a game doesn't allocate anything. Every game is seeded so every set of weights in a
+// generation sees the same pieces, and writes its result into its own slot of an array,
+// so the threads never have to share a lock.
+//
+// Run with 'java WeightTuner [population] [games] [generations] [pieces]'
+
+
+class WeightTuner {
+
+	//the fraction of the population picked at random for each tournament
+	static final double TOURNAMENT_FRACTION = 0.1;
+
+	//the fraction of the population replaced each generation
+	static final double REPLACE_FRACTION = 0.3;
+
+	static final double MUTATION_CHANCE = 0.05;
+	static final double MUTATION_SIZE = 0.2;
+
+	final int population;
+	final int gamesPerCandidate;
+	final int maxPieces;				//games are stopped after this many pieces, as a good bot never loses
+
+	double weights[][];
+	final int fitness[];
+
+	//the lines cleared in each game of the current generation, indexed by candidate * gamesPerCandidate + game
+	private final int results[];
+
+	private final Random rng;
+	private long seed;					//the pieces for the current generation's games
+
+	WeightTuner(int population, int gamesPerCandidate, int maxPieces, long seed) {
+		this.population = population;
+		this.gamesPerCandidate = gamesPerCandidate;
+		this.maxPieces = maxPieces;
+
+		fitness = new int[population];
+		results = new int[population * gamesPerCandidate];
+		rng = new Random(seed);
+
+		//start off with random weights
+		weights = new double[population][];
+		for (int i = 0; i < population; ++i) {
+			weights[i] = new double[WeightedEvaluator.NUM_WEIGHTS];
+			for (int j = 0; j < WeightedEvaluator.NUM_WEIGHTS; ++j) {
+				weights[i][j] = rng.nextDouble() - 0.5;
+			}
+			normalise(weights[i]);
+		}
+	}
+
+	//an engine for playGame, which can play any number of games one after the other
+	static TetrisEngine makeEngine() {
+		TetrisEngine engine = new TetrisEngine();
+
+		//no need to wait around when nobody is watching
+		engine.entryDelays = new int[] {0};
+		engine.lineClearDelays = new int[] {0};
+		return engine;
+	}
+
+	//plays one game with the bot (which has the weights), and returns how many lines were cleared
+	static int playGame(TetrisEngine engine, AutoPlayer autoPlayer, long seed, int maxPieces) {
+		engine.startGame(seed);
+		autoPlayer.reset();
+
+		TetrisEngine.PlayerState p = engine.players[TetrisEngine.PLAYER_1];
+
+		while (engine.gameState == TetrisEngine.GAME_STATE_RUNNING && p.pieces <= maxPieces) {
+			autoPlayer.update();
+			engine.tick();
+		}
+
+		return p.linesCleared;
+	}
+
+	//plays the games of a range of candidates, splitting it in half until there's one candidate per task
+	private class PlayGames extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int start;
+		private final int end;
+
+		PlayGames(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		protected void compute() {
+			if (end - start == 1) {
+				TetrisEngine engine = makeEngine();
+				AutoPlayer autoPlayer = new AutoPlayer(engine, TetrisEngine.PLAYER_1, new WeightedEvaluator(weights[start]));
+
+				//nothing else writes to these slots
+				for (int game = 0; game < gamesPerCandidate; ++game) {
+					results[start * gamesPerCandidate + game] = playGame(engine, autoPlayer, seed + game, maxPieces);
+				}
+				return;
+			}
+
+			int middle = (start + end) / 2;
+			invokeAll(new PlayGames(start, middle), new PlayGames(middle, end));
+		}
+	}
+
+	//plays every game for the current weights and works out their fitness
+	void evaluate() {
+		seed = rng.nextLong();
+
+		ForkJoinPool.commonPool().invoke(new PlayGames(0, population));
+
+		for (int i = 0; i < population; ++i) {
+			fitness[i] = 0;
+			for (int game = 0; game < gamesPerCandidate; ++game) {
+				fitness[i] += results[i * gamesPerCandidate + game];
+			}
+		}
+	}
+
+	//replaces the worst candidates with children of the best ones
+	void breed() {
+		int numChildren = (int) (population * REPLACE_FRACTION);
+		double children[][] = new double[numChildren][];
+
+		for (int i = 0; i < numChildren; ++i) {
+			int a = tournament();
+			int b = tournament();
+
+			//the child is between its parents, closer to the fitter one
+			double child[] = new double[WeightedEvaluator.NUM_WEIGHTS];
+			for (int j = 0; j < WeightedEvaluator.NUM_WEIGHTS; ++j) {
+				child[j] = weights[a][j] * (fitness[a] + 1) + weights[b][j] * (fitness[b] + 1);
+			}
+
+			if (rng.nextDouble() < MUTATION_CHANCE) {
+				child[rng.nextInt(WeightedEvaluator.NUM_WEIGHTS)] += (rng.nextDouble() * 2 - 1) * MUTATION_SIZE;
+			}
+
+			normalise(child);
+			children[i] = child;
+		}
+
+		//put them over the worst ones
+		for (int i = 0; i < numChildren; ++i) {
+			int worst = 0;
+			for (int j = 1; j < population; ++j) {
+				if (fitness[j] < fitness[worst]) {
+					worst = j;
+				}
+			}
+
+			weights[worst] = children[i];
+			fitness[worst] = Integer.MAX_VALUE;		//so it doesn't get replaced again this generation
+		}
+	}
+
+	//the fittest of a few random candidates
+	private int tournament() {
+		int size = Math.max(2, (int) (population * TOURNAMENT_FRACTION));
+		int best = rng.nextInt(population);
+
+		for (int i = 1; i < size; ++i) {
+			int candidate = rng.nextInt(population);
+			if (fitness[candidate] > fitness[best]) {
+				best = candidate;
+			}
+		}
+
+		return best;
+	}
+
+	int best() {
+		int best = 0;
+		for (int i = 1; i < population; ++i) {
+			if (fitness[i] > fitness[best]) {
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	//only the ratios between the weights matter, so keep them all the same length
+	private static void normalise(double weights[]) {
+		double length = 0;
+		for (double w : weights) {
+			length += w * w;
+		}
+
+		length = Math.sqrt(length);
+		for (int i = 0; i < weights.length; ++i) {
+			weights[i] /= length;
+		}
+	}
+
+	public static void main(String[] args) {
+		int population = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int games = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int generations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		int pieces = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+
+		WeightTuner tuner = new WeightTuner(population, games, pieces, 1);
+
+		System.out.printf("%d candidates, %d games each, up to %d pieces per game, on %d threads\n",
+				population, games, pieces, ForkJoinPool.commonPool().getParallelism());
+
+		for (int generation = 0; generation < generations; ++generation) {
+			long start = System.nanoTime();
+			tuner.evaluate();
+			double seconds = (System.nanoTime() - start) / 1000000000.0;
+
+			int best = tuner.best();
+			long total = 0;
+			for (int f : tuner.fitness) {
+				total += f;
+			}
+
+			System.out.printf("generation %d: best %.1f lines/game, mean %.1f lines/game, %.1f games/s, weights %s\n",
+					generation, (double) tuner.fitness[best] / games, (double) total / population / games,
+					population * games / seconds, Arrays.toString(tuner.weights[best]));
+
+			if (generation != generations - 1) {
+				tuner.breed();
+			}
+		}
+	}
+}
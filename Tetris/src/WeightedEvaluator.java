@@ -0,0 +1,79 @@
+
+// The usual Tetris bot heuristic: a weighted sum of
+//	 aggregate height (the heights of all the columns added up),
+//	 lines cleared,
+//	 holes (empty cells with something above them),
+//	 and bumpiness (how much the heights change between neighbouring columns)
+// The default weights are the well known ones from Yiyuan Lee's Tetris AI,
+// and better ones can be found with WeightTuner.
+//
+// It keeps the column heights between calls, so each thread needs its own one
+
+
+class WeightedEvaluator implements BoardEvaluator {
+
+	//indexes into the weights
+	static final int AGGREGATE_HEIGHT = 0;
+	static final int LINES = 1;
+	static final int HOLES = 2;
+	static final int BUMPINESS = 3;
+	static final int NUM_WEIGHTS = 4;
+
+	static final double defaultWeights[] = {-0.510066, 0.760666, -0.35663, -0.184483};
+
+	final double weights[];
+
+	//big enough for any board
+	private final int heights[] = new int[BitBoard.MAX_WIDTH];
+
+	WeightedEvaluator() {
+		this(defaultWeights);
+	}
+
+	WeightedEvaluator(double weights[]) {
+		this.weights = weights.clone();
+	}
+
+	public double evaluate(BitBoard board, int linesCleared) {
+		int width = board.width;
+		int floor = board.height - 1;
+
+		for (int x = 1; x < width - 1; ++x) {
+			heights[x] = 0;
+		}
+
+		//go down the rows, keeping track of which columns have had something in them so far
+		long covered = 0;
+		int holes = 0;
+
+		//(nothing above the top, so no heights or holes there either)
+		for (int y = board.top; y < floor; ++y) {
+			long filled = board.rows[y];
+
+			//empty cells under something are holes
+			holes += Long.bitCount(covered & ~filled);
+
+			//the first filled cell in a column is its height
+			long tops = filled & ~covered;
+			while (tops != 0) {
+				heights[Long.numberOfTrailingZeros(tops) + 1] = floor - y;
+				tops &= tops - 1;
+			}
+
+			covered |= filled;
+		}
+
+		int aggregateHeight = heights[1];
+		int bumpiness = 0;
+
+		for (int x = 2; x < width - 1; ++x) {
+			aggregateHeight += heights[x];
+			bumpiness += Math.abs(heights[x] - heights[x - 1]);
+		}
+
+		return weights[AGGREGATE_HEIGHT] * aggregateHeight +
+			   weights[LINES] * linesCleared +
+			   weights[HOLES] * holes +
+			   weights[BUMPINESS] * bumpiness;
+	}
+}
@@ -0,0 +1,74 @@
+import java.util.Random;
+
+
+// Random keys for hashing a board (Zobrist hashing), so a bot's search can tell when it's
+// already seen a board. There's a key for every cell, and a board's hash is all the keys of
+// its filled cells XORed together. Filling or emptying a cell is then just XORing its key in,
+// so BitBoard keeps its hash up to date as pieces are placed and rows are removed, instead
+// of looking at the whole board each time.
+//
+// The shape and line keys get XORed in as well when what's being stored depends on them
+// (e.g. the best placement of a T on a board isn't the best placement of an I).
+// The keys are always the same (fixed seed), so hashes can be compared between runs.
+
+
+class Zobrist {
+
+	//a row's cell keys 4 columns at a time, so hashing a row is a lookup for every 4 columns
+	//instead of one for every filled cell (each entry is the keys of those cells XORed together,
+	//so it's the same hash). There's a set of these for every row of the biggest board,
+	//as a board's hash doesn't depend on how big it is (it just doesn't use the rest)
+	private static final int NIBBLES = 64 / 4;
+	private static final long ROWS[] = new long[BitBoard.MAX_HEIGHT * NIBBLES * 16];
+
+	//the piece about to be placed
+	static final long SHAPES[] = new long[7];
+
+	//how many lines have been cleared so far (two pieces can clear up to 8)
+	static final long LINES[] = new long[9];
+
+	static {
+		Random rng = new Random(0x2B0B215L);
+
+		for (int i = 0; i < ROWS.length; i += 16) {
+			//a key for each of the 4 cells, and every combination of them
+			for (int cell = 1; cell < 16; cell <<= 1) {
+				ROWS[i + cell] = rng.nextLong();
+			}
+			for (int cells = 3; cells < 16; ++cells) {
+				int lowest = cells & -cells;
+				ROWS[i + cells] = ROWS[i + lowest] ^ ROWS[i + (cells ^ lowest)];
+			}
+		}
+		for (int i = 0; i < SHAPES.length; ++i) {
+			SHAPES[i] = rng.nextLong();
+		}
+		for (int i = 0; i < LINES.length; ++i) {
+			LINES[i] = rng.nextLong();
+		}
+	}
+
+	//the key for column x of row y
+	static long cell(int x, int y) {
+		return ROWS[(y * NIBBLES + ((x - 1) >>> 2)) * 16 + (1 << ((x - 1) & 3))];
+	}
+
+	//the keys of the filled cells in a BitBoard row, if it was at row 'y'
+	//(stops at the last filled column, so a few cells at the left of a wide board are still quick)
+	static long row(long row, int y) {
+		long hash = 0;
+		for (int i = y * NIBBLES * 16; row != 0; row >>>= 4, i += 16) {
+			hash ^= ROWS[i + (int) (row & 15)];
+		}
+		return hash;
+	}
+
+	//what XORing into a hash moves a row's cells from row 'from' to row 'to'
+	static long moveRow(long row, int from, int to) {
+		long hash = 0;
+		for (int i = from * NIBBLES * 16, j = to * NIBBLES * 16; row != 0; row >>>= 4, i += 16, j += 16) {
+			hash ^= ROWS[i + (int) (row & 15)] ^ ROWS[j + (int) (row & 15)];
+		}
+		return hash;
+	}
+}